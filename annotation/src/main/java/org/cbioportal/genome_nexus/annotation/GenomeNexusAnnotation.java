@@ -33,6 +33,7 @@
 package org.cbioportal.genome_nexus.annotation;
 
 
+import org.cbioportal.genome_nexus.annotation.service.internal.AnnotationImporter;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.web.SpringBootServletInitializer;
@@ -45,6 +46,8 @@ import springfox.documentation.swagger2.annotations.EnableSwagger2;
 
 import springfox.documentation.builders.PathSelectors;
 
+import java.util.concurrent.Callable;
+
 /**
  * @author Benjamin Gross
  */
@@ -54,7 +57,19 @@ public class GenomeNexusAnnotation extends SpringBootServletInitializer
 {
     public static void main(String[] args)
     {
-        SpringApplication.run(GenomeNexusAnnotation.class, args);
+        SpringApplication application = new SpringApplication(GenomeNexusAnnotation.class);
+
+        // import mode: java -jar <jar> --vep.import.file=<VEP JSON output> [--vep.import.release=<release>]
+        // imports the file without starting the web server, and exits when complete.
+        // the import profile leaves out the beans which use the remote services at startup.
+        if (AnnotationImporter.isImportMode(args))
+        {
+            application.setWebEnvironment(false);
+            application.setAdditionalProfiles(AnnotationImporter.IMPORT_PROFILE);
+            System.exit(SpringApplication.exit(application.run(args)));
+        }
+
+        application.run(args);
     }
 
     @Bean
@@ -64,6 +79,8 @@ public class GenomeNexusAnnotation extends SpringBootServletInitializer
         return new Docket(DocumentationType.SWAGGER_2)
             .groupName("variant_annotation")
             .apiInfo(annotationApiInfo())
+            // document the actual response type of the async endpoints
+            .genericModelSubstitutes(Callable.class)
             .select()
             .paths(PathSelectors.regex("/.*"))
             .build();
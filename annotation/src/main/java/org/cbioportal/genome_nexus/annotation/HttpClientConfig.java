@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared HTTP client for the external web services (VEP, Cancer Hotspots),
+ * backed by a connection pool so that connections are reused across requests.
+ */
+@Configuration
+public class HttpClientConfig
+{
+    private Integer connectTimeout;
+    @Value("${http.client.connect.timeout:5000}")
+    public void setConnectTimeout(Integer connectTimeout) { this.connectTimeout = connectTimeout; }
+
+    private Integer readTimeout;
+    @Value("${http.client.read.timeout:60000}")
+    public void setReadTimeout(Integer readTimeout) { this.readTimeout = readTimeout; }
+
+    private Integer maxTotal;
+    @Value("${http.client.max.total:64}")
+    public void setMaxTotal(Integer maxTotal) { this.maxTotal = maxTotal; }
+
+    private Integer maxPerRoute;
+    @Value("${http.client.max.per_route:32}")
+    public void setMaxPerRoute(Integer maxPerRoute) { this.maxPerRoute = maxPerRoute; }
+
+    private Long idleTimeout;
+    @Value("${http.client.idle.timeout:30000}")
+    public void setIdleTimeout(Long idleTimeout) { this.idleTimeout = idleTimeout; }
+
+    @Bean
+    public PoolingHttpClientConnectionManager connectionManager()
+    {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+
+        return connectionManager;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient httpClient()
+    {
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(connectTimeout)
+            .setSocketTimeout(readTimeout)
+            // max time to wait for a connection from the pool
+            .setConnectionRequestTimeout(readTimeout)
+            .build();
+
+        // connections are kept alive as long as the server allows,
+        // and closed after being idle for a while
+        return HttpClientBuilder.create()
+            .setConnectionManager(connectionManager())
+            .setDefaultRequestConfig(requestConfig)
+            .evictExpiredConnections()
+            .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    @Bean
+    public RestTemplate restTemplate()
+    {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient()));
+    }
+
+    @Bean
+    public PublicMetrics httpClientPoolMetrics()
+    {
+        final PoolingHttpClientConnectionManager connectionManager = connectionManager();
+
+        return new PublicMetrics() {
+            @Override
+            public Collection<Metric<?>> metrics()
+            {
+                PoolStats stats = connectionManager.getTotalStats();
+                List<Metric<?>> metrics = new ArrayList<>();
+
+                metrics.add(new Metric<>("http.client.pool.leased", stats.getLeased()));
+                metrics.add(new Metric<>("http.client.pool.pending", stats.getPending()));
+                metrics.add(new Metric<>("http.client.pool.available", stats.getAvailable()));
+                metrics.add(new Metric<>("http.client.pool.max", stats.getMax()));
+
+                return metrics;
+            }
+        };
+    }
+}
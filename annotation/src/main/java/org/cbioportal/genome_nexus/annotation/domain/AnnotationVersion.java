@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.domain;
+
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.util.Date;
+
+/**
+ * Records which upstream release and which query parameters produced a cached annotation,
+ * and when it was fetched. Instances are not modified once created.
+ */
+public class AnnotationVersion
+{
+    private String release;            // upstream (VEP/Ensembl) release, null if unknown
+    private String queryFingerprint;   // fingerprint of the query parameters of the request
+    private Date fetchedAt;            // fetch time
+
+    public AnnotationVersion()
+    {
+        this(null, null, null);
+    }
+
+    public AnnotationVersion(String release, String queryFingerprint, Date fetchedAt)
+    {
+        this.release = release;
+        this.queryFingerprint = queryFingerprint;
+        this.fetchedAt = fetchedAt;
+    }
+
+    @Field(value="release")
+    public String getRelease()
+    {
+        return release;
+    }
+
+    @Field(value="query_fingerprint")
+    public String getQueryFingerprint()
+    {
+        return queryFingerprint;
+    }
+
+    @Field(value="fetched_at")
+    public Date getFetchedAt()
+    {
+        return fetchedAt;
+    }
+
+    /**
+     * @return age in milliseconds since the fetch time, or Long.MAX_VALUE if unknown
+     */
+    public long getAge()
+    {
+        return fetchedAt == null ? Long.MAX_VALUE : System.currentTimeMillis() - fetchedAt.getTime();
+    }
+}
@@ -32,28 +32,35 @@
 
 package org.cbioportal.genome_nexus.annotation.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import io.swagger.annotations.ApiModelProperty;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+/**
+ * Cancer hotspot residue of a transcript. Cached instances are shared by all requests
+ * and never modified, the fields specific to a variant are in HotspotMatch.
+ */
 @Document(collection = "hotspots")
 @JsonIgnoreProperties(ignoreUnknown = true)
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class Hotspot
 {
-    // TODO transcriptId is not a unique identifier, we may need a composite id...
+    // transcriptId is not a unique identifier (a transcript may have several hotspot residues),
+    // the id is composed of the transcript id and the residue
     @Id
+    @JsonIgnore
+    private String id;
+
+    @Indexed
     private String transcriptId;
 
     private String hugoSymbol;
     private String residue;
 
-    private String proteinStart;
-    private String proteinEnd;
-    private String geneId;
-
     @ApiModelProperty(value = "Transcript id", required = true)
     public String getTranscriptId()
     {
@@ -63,39 +70,7 @@ public class Hotspot
     public void setTranscriptId(String transcriptId)
     {
         this.transcriptId = transcriptId;
-    }
-
-    @ApiModelProperty(value = "Protein start position", required = false)
-    public String getProteinStart()
-    {
-        return proteinStart;
-    }
-
-    public void setProteinStart(String proteinStart)
-    {
-        this.proteinStart = proteinStart;
-    }
-
-    @ApiModelProperty(value = "Protein end position", required = false)
-    public String getProteinEnd()
-    {
-        return proteinEnd;
-    }
-
-    public void setProteinEnd(String proteinEnd)
-    {
-        this.proteinEnd = proteinEnd;
-    }
-
-    @ApiModelProperty(value = "Ensembl gene id", required = false)
-    public String getGeneId()
-    {
-        return geneId;
-    }
-
-    public void setGeneId(String geneId)
-    {
-        this.geneId = geneId;
+        this.id = compositeId(transcriptId, residue);
     }
 
     @ApiModelProperty(value = "Hugo gene symbol", required = false)
@@ -118,5 +93,16 @@ public class Hotspot
     public void setResidue(String residue)
     {
         this.residue = residue;
+        this.id = compositeId(transcriptId, residue);
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public static String compositeId(String transcriptId, String residue)
+    {
+        return transcriptId + "_" + residue;
     }
 }
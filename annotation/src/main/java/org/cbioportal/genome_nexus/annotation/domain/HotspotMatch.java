@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModelProperty;
+
+/**
+ * Immutable result of a hotspot lookup: a (shared) cached hotspot overlapping the protein
+ * position of a transcript consequence, together with the transcript specific fields.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public final class HotspotMatch
+{
+    private final Hotspot hotspot;
+    private final String geneId;
+    private final String proteinStart;
+    private final String proteinEnd;
+
+    public HotspotMatch(Hotspot hotspot, String geneId, String proteinStart, String proteinEnd)
+    {
+        this.hotspot = hotspot;
+        this.geneId = geneId;
+        this.proteinStart = proteinStart;
+        this.proteinEnd = proteinEnd;
+    }
+
+    @JsonIgnore
+    public Hotspot getHotspot()
+    {
+        return hotspot;
+    }
+
+    @ApiModelProperty(value = "Transcript id", required = true)
+    public String getTranscriptId()
+    {
+        return hotspot.getTranscriptId();
+    }
+
+    @ApiModelProperty(value = "Hugo gene symbol", required = false)
+    public String getHugoSymbol()
+    {
+        return hotspot.getHugoSymbol();
+    }
+
+    @ApiModelProperty(value = "Hotspot Residue", required = false)
+    public String getResidue()
+    {
+        return hotspot.getResidue();
+    }
+
+    @ApiModelProperty(value = "Protein start position", required = false)
+    public String getProteinStart()
+    {
+        return proteinStart;
+    }
+
+    @ApiModelProperty(value = "Protein end position", required = false)
+    public String getProteinEnd()
+    {
+        return proteinEnd;
+    }
+
+    @ApiModelProperty(value = "Ensembl gene id", required = false)
+    public String getGeneId()
+    {
+        return geneId;
+    }
+}
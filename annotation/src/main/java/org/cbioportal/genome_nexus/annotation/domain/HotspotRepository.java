@@ -32,9 +32,10 @@
 
 package org.cbioportal.genome_nexus.annotation.domain;
 
+import org.cbioportal.genome_nexus.annotation.domain.internal.HotspotRepositoryCustom;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 /**
  * @author Selcuk Onur Sumer
  */
-public interface HotspotRepository extends MongoRepository<Hotspot, String> {}
+public interface HotspotRepository extends MongoRepository<Hotspot, String>, HotspotRepositoryCustom {}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import io.swagger.annotations.ApiModelProperty;
+
+/**
+ * Protein position range on a transcript, for the hotspot lookups which
+ * do not require a variant annotation.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ProteinLocation
+{
+    private String transcriptId;
+    private Integer proteinStart;
+    private Integer proteinEnd;
+
+    public ProteinLocation()
+    {
+        this(null, null, null);
+    }
+
+    public ProteinLocation(String transcriptId, Integer proteinStart, Integer proteinEnd)
+    {
+        this.transcriptId = transcriptId;
+        this.proteinStart = proteinStart;
+        this.proteinEnd = proteinEnd;
+    }
+
+    @ApiModelProperty(value = "Ensembl transcript id", required = true)
+    public String getTranscriptId()
+    {
+        return transcriptId;
+    }
+
+    public void setTranscriptId(String transcriptId)
+    {
+        this.transcriptId = transcriptId;
+    }
+
+    @ApiModelProperty(value = "Protein start position", required = true)
+    public Integer getProteinStart()
+    {
+        return proteinStart;
+    }
+
+    public void setProteinStart(Integer proteinStart)
+    {
+        this.proteinStart = proteinStart;
+    }
+
+    @ApiModelProperty(value = "Protein end position (same as the start position if not specified)", required = false)
+    public Integer getProteinEnd()
+    {
+        return proteinEnd;
+    }
+
+    public void setProteinEnd(Integer proteinEnd)
+    {
+        this.proteinEnd = proteinEnd;
+    }
+}
@@ -274,6 +274,35 @@ public class TranscriptConsequence
         this.consequenceTerms = consequenceTerms;
     }
 
+    /**
+     * Creates a copy of this transcript, including the dynamic properties.
+     * List fields are shared with the copy, since they are never modified after mapping.
+     *
+     * @return a copy of this transcript
+     */
+    public TranscriptConsequence copy()
+    {
+        TranscriptConsequence copy = new TranscriptConsequence(transcriptId);
+
+        copy.setHgvsp(hgvsp);
+        copy.setHgvsc(hgvsc);
+        copy.setVariantAllele(variantAllele);
+        copy.setCodons(codons);
+        copy.setProteinId(proteinId);
+        copy.setProteinStart(proteinStart);
+        copy.setProteinEnd(proteinEnd);
+        copy.setGeneSymbol(geneSymbol);
+        copy.setGeneId(geneId);
+        copy.setAminoAcids(aminoAcids);
+        copy.setHgncId(hgncId);
+        copy.setCanonical(canonical);
+        copy.setRefseqTranscriptIds(refseqTranscriptIds);
+        copy.setConsequenceTerms(consequenceTerms);
+        copy.dynamicProps.putAll(dynamicProps);
+
+        return copy;
+    }
+
     // this is to dynamically add additional properties for this transcript
     // anything added into the dynamic props map will be returned as an additional
     // json property
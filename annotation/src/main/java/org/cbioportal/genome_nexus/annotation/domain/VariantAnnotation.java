@@ -32,6 +32,7 @@
 
 package org.cbioportal.genome_nexus.annotation.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -40,6 +41,7 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -65,6 +67,9 @@ public class VariantAnnotation
     private String mostSevereConsequence;
     private List<TranscriptConsequence> transcriptConsequences;
 
+    @JsonIgnore
+    private AnnotationVersion version; // version of the cached annotation (not sent to the client)
+
     public VariantAnnotation()
     {
         this(null, null);
@@ -222,6 +227,53 @@ public class VariantAnnotation
         this.transcriptConsequences = transcriptConsequences;
     }
 
+    @Field(value="version")
+    public AnnotationVersion getVersion()
+    {
+        return version;
+    }
+
+    public void setVersion(AnnotationVersion version)
+    {
+        this.version = version;
+    }
+
+    /**
+     * Creates a copy of this annotation, so that the copy can be enriched
+     * without modifying this instance (or its transcripts).
+     *
+     * @return a copy of this annotation
+     */
+    public VariantAnnotation copy()
+    {
+        VariantAnnotation copy = new VariantAnnotation(variant, annotationJSON);
+
+        copy.setVariantId(variantId);
+        copy.setAssemblyName(assemblyName);
+        copy.setSeqRegionName(seqRegionName);
+        copy.setStart(start);
+        copy.setEnd(end);
+        copy.setAlleleString(alleleString);
+        copy.setStrand(strand);
+        copy.setMostSevereConsequence(mostSevereConsequence);
+        // immutable, no need to copy
+        copy.setVersion(version);
+
+        if (transcriptConsequences != null)
+        {
+            List<TranscriptConsequence> transcripts = new ArrayList<>();
+
+            for (TranscriptConsequence transcript: transcriptConsequences)
+            {
+                transcripts.add(transcript.copy());
+            }
+
+            copy.setTranscriptConsequences(transcripts);
+        }
+
+        return copy;
+    }
+
     @Override
     public String toString()
     {
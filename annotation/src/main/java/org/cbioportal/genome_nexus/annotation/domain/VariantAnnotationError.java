@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Error outcome of a failed annotation request for a single variant.
+ * Stored errors are removed from the database once they expire.
+ */
+@Document(collection = "vep.annotation.error")
+public class VariantAnnotationError
+{
+    @Id
+    private String variant;   // used as an id for mongodb record
+    private String message;   // error message (or unparseable response) returned by the service
+
+    // TTL index: the document is removed by the database after this date
+    @Indexed(expireAfterSeconds = 0)
+    private Date expireAt;
+
+    public VariantAnnotationError()
+    {
+        this(null, null, null);
+    }
+
+    public VariantAnnotationError(String variant, String message, Date expireAt)
+    {
+        this.variant = variant;
+        this.message = message;
+        this.expireAt = expireAt;
+    }
+
+    public String getVariant()
+    {
+        return variant;
+    }
+
+    public void setVariant(String variant)
+    {
+        this.variant = variant;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    public void setMessage(String message)
+    {
+        this.message = message;
+    }
+
+    public Date getExpireAt()
+    {
+        return expireAt;
+    }
+
+    public void setExpireAt(Date expireAt)
+    {
+        this.expireAt = expireAt;
+    }
+
+    /**
+     * @return true if the error is past its expiry date
+     */
+    public boolean isExpired()
+    {
+        return expireAt == null || !expireAt.after(new Date());
+    }
+}
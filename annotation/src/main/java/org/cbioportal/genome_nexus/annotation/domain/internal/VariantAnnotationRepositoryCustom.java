@@ -32,9 +32,13 @@
 
 package org.cbioportal.genome_nexus.annotation.domain.internal;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import org.cbioportal.genome_nexus.annotation.domain.AnnotationVersion;
 import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotation;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * @author Selcuk Onur Sumer
@@ -46,9 +50,43 @@ public interface VariantAnnotationRepositoryCustom
      *
      * @param variant           variant key (used as an id)
      * @param annotationJSON    raw annotation JSON (obtained from the service)
+     * @throws IllegalStateException if the annotation cannot be parsed or saved
      */
     void saveAnnotationJson(String variant, String annotationJSON);
 
+    /**
+     * Parses and saves (upserts) multiple annotation JSON objects to the database
+     * with a single unordered bulk write. A failure to save one annotation
+     * does not prevent the others from being saved.
+     *
+     * @param annotationJSONs   raw annotation JSON strings keyed on variant
+     * @return error messages keyed on variant for the annotations that could not be saved
+     */
+    Map<String, String> saveAnnotationJson(Map<String, String> annotationJSONs);
+
+    /**
+     * Saves (upserts) multiple already parsed annotations to the database
+     * with a single unordered bulk write. A failure to save one annotation
+     * does not prevent the others from being saved.
+     *
+     * @param annotationNodes   parsed annotation JSON trees keyed on variant
+     * @param version           version stamped on every saved annotation (may be null)
+     * @return error messages keyed on variant for the annotations that could not be saved
+     *         (never throws a database error, a failed bulk write is reported for each annotation)
+     */
+    Map<String, String> saveAnnotations(Map<String, JsonNode> annotationNodes, AnnotationVersion version);
+
+    /**
+     * Parses the given raw annotation JSON string into a JSON tree.
+     * If the given annotation JSON is an array, returns only the first element.
+     * The same tree can be used to both map and save the annotation.
+     *
+     * @param annotationJSON    raw annotation JSON string
+     * @return parsed JSON tree
+     * @throws IOException
+     */
+    JsonNode parseAnnotationJson(String annotationJSON) throws IOException;
+
     /**
      * Maps the given raw annotation JSON string onto a VariantAnnotation instance.
      *
@@ -58,4 +96,33 @@ public interface VariantAnnotationRepositoryCustom
      * @throws IOException
      */
     VariantAnnotation mapAnnotationJson(String variant, String annotationJSON) throws IOException;
+
+    /**
+     * Maps the given parsed annotation JSON tree onto a VariantAnnotation instance.
+     *
+     * @param variant           variant key
+     * @param annotationNode    parsed annotation JSON tree
+     * @return a VariantAnnotation instance
+     * @throws IOException
+     */
+    VariantAnnotation mapAnnotationJson(String variant, JsonNode annotationNode) throws IOException;
+
+    /**
+     * Retrieves the annotations for the given variants from the database
+     * by using a single query per chunk of variants instead of one query per variant.
+     *
+     * @param variants  variant keys
+     * @return annotations keyed on variant (variants not found in the database are not included)
+     */
+    Map<String, VariantAnnotation> findAnnotations(Collection<String> variants);
+
+    /**
+     * Retrieves the full raw annotation JSON of the given variant from the database.
+     * Compressed annotations are decompressed only here.
+     *
+     * @param variant   variant key
+     * @return raw annotation JSON string, or null if the variant is not in the database
+     * @throws IOException if the stored annotation cannot be decompressed
+     */
+    String findAnnotationJson(String variant) throws IOException;
 }
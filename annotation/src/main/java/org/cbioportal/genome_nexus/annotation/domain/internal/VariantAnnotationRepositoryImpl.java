@@ -32,15 +32,40 @@
 
 package org.cbioportal.genome_nexus.annotation.domain.internal;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import com.mongodb.MongoException;
 import com.mongodb.util.JSON;
+import org.bson.types.Binary;
+import org.cbioportal.genome_nexus.annotation.domain.AnnotationVersion;
 import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotation;
+import org.cbioportal.genome_nexus.annotation.util.Compression;
+import org.cbioportal.genome_nexus.annotation.util.Hgvs;
+import org.cbioportal.genome_nexus.annotation.util.Transformer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mapping.PropertyHandler;
+import org.springframework.data.mongodb.core.DocumentCallbackHandler;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 
 import java.io.IOException;
-import java.util.List;
+import java.nio.charset.Charset;
+import java.util.*;
 
 /**
  * @author Selcuk Onur Sumer
@@ -52,23 +77,169 @@ public class VariantAnnotationRepositoryImpl implements VariantAnnotationReposit
 
     public final String DEFAULT_COLLECTION = "vep.annotation";
 
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+
+    // keeps the original variant key when the _id is a packed key
+    public static final String VARIANT_FIELD = "variant";
+
+    // full annotation JSON when the documents are compressed, and the codec used
+    public static final String PAYLOAD_FIELD = "annotation_compressed";
+    public static final String CODEC_FIELD = "annotation_codec";
+
+    // release, query fingerprint and fetch time of the annotation
+    public static final String VERSION_FIELD = "version";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ObjectReader ANNOTATION_READER = Transformer.readerFor(VariantAnnotation.class);
+
+    // max number of ids in a single $in query, keeps the query document well below the BSON size limit
+    private Integer lookupBatchSize;
+    @Value("${vep.annotation.lookup.batch.size:1000}")
+    public void setLookupBatchSize(Integer lookupBatchSize) { this.lookupBatchSize = lookupBatchSize; }
+
+    // use a compact binary _id (see Hgvs.pack) for genomic variants instead of the variant string
+    private Boolean packedId;
+    @Value("${vep.annotation.packed_id:false}")
+    public void setPackedId(Boolean packedId) { this.packedId = packedId; }
+
+    // store only the fields mapped to the model as regular fields, and the full annotation compressed
+    private Compression storageCodec;
+    @Value("${vep.annotation.storage.codec:none}")
+    public void setStorageCodec(String storageCodec) { this.storageCodec = Compression.forName(storageCodec); }
+
     /**
      * Parses and saves the entire content of the annotation JSON object to the database.
      *
      * @param variant           variant key (used as an id)
      * @param annotationJSON    raw annotation JSON (obtained from the service)
+     * @throws IllegalStateException if the annotation cannot be parsed or saved
      */
     @Override
     public void saveAnnotationJson(String variant, String annotationJSON)
     {
-        // parse the given annotation JSON string to get a proper object
-        DBObject dbObject = convertToDbObject(annotationJSON);
+        // same path as the bulk save, so that the storage codec applies here too
+        Map<String, String> failures = saveAnnotationJson(Collections.singletonMap(variant, annotationJSON));
+
+        if (failures.containsKey(variant))
+        {
+            throw new IllegalStateException("Annotation of " + variant + " could not be saved: " +
+                failures.get(variant));
+        }
+    }
+
+    /**
+     * Parses and saves (upserts) multiple annotation JSON objects to the database
+     * with a single unordered bulk write. A failure to save one annotation
+     * does not prevent the others from being saved.
+     *
+     * @param annotationJSONs   raw annotation JSON strings keyed on variant
+     * @return error messages keyed on variant for the annotations that could not be saved
+     */
+    @Override
+    public Map<String, String> saveAnnotationJson(Map<String, String> annotationJSONs)
+    {
+        Map<String, String> failures = new LinkedHashMap<>();
+        Map<String, JsonNode> annotationNodes = new LinkedHashMap<>();
+
+        for (String variant: annotationJSONs.keySet())
+        {
+            try {
+                annotationNodes.put(variant, parseAnnotationJson(annotationJSONs.get(variant)));
+            }
+            catch (IOException e) {
+                // not a valid annotation JSON, skip this one only
+                failures.put(variant, e.toString());
+            }
+        }
 
-        // update the _id field to the given variant
-        dbObject.put("_id", variant);
+        failures.putAll(saveAnnotations(annotationNodes, null));
 
-        // save the object into the correct repository
-        this.mongoTemplate.save(dbObject, DEFAULT_COLLECTION);
+        return failures;
+    }
+
+    /**
+     * Saves (upserts) multiple already parsed annotations to the database
+     * with a single unordered bulk write. A failure to save one annotation
+     * does not prevent the others from being saved.
+     *
+     * @param annotationNodes   parsed annotation JSON trees keyed on variant
+     * @param version           version stamped on every saved annotation (may be null)
+     * @return error messages keyed on variant for the annotations that could not be saved
+     *         (never throws a database error, a failed bulk write is reported for each annotation)
+     */
+    @Override
+    public Map<String, String> saveAnnotations(Map<String, JsonNode> annotationNodes, AnnotationVersion version)
+    {
+        Map<String, String> failures = new LinkedHashMap<>();
+        // keeps track of the variant for each request index in the bulk operation
+        List<String> variants = new ArrayList<>();
+        BulkWriteOperation bulkWrite;
+
+        try {
+            DBCollection collection = this.mongoTemplate.getCollection(DEFAULT_COLLECTION);
+            bulkWrite = collection.initializeUnorderedBulkOperation();
+        }
+        catch (MongoException | DataAccessException e) {
+            // database not available, none of the annotations is saved
+            for (String variant: annotationNodes.keySet())
+            {
+                failures.put(variant, e.toString());
+            }
+
+            return failures;
+        }
+
+        for (String variant: annotationNodes.keySet())
+        {
+            try {
+                // build the document from the already parsed tree, no need to parse the JSON string again
+                DBObject dbObject = convertToStorageObject(annotationNodes.get(variant));
+                setId(dbObject, variant);
+
+                if (version != null)
+                {
+                    dbObject.put(VERSION_FIELD, convertToDbObject(version));
+                }
+
+                bulkWrite.find(new BasicDBObject("_id", dbObject.get("_id"))).upsert().replaceOne(dbObject);
+                variants.add(variant);
+            }
+            catch (RuntimeException | IOException e) {
+                // not a valid annotation JSON object, skip this one only
+                failures.put(variant, e.toString());
+            }
+        }
+
+        if (variants.size() == 0)
+        {
+            return failures;
+        }
+
+        try {
+            bulkWrite.execute();
+        }
+        catch (BulkWriteException e) {
+            for (BulkWriteError error: e.getWriteErrors())
+            {
+                // duplicate key: another node upserted the same variant concurrently,
+                // the annotation is already in the database
+                if (error.getCode() != DUPLICATE_KEY_ERROR_CODE)
+                {
+                    failures.put(variants.get(error.getIndex()), error.getMessage());
+                }
+            }
+        }
+        catch (MongoException | DataAccessException e) {
+            // timeout, lost connection, ... the whole batch may or may not be written,
+            // report all of it as failed
+            for (String variant: variants)
+            {
+                failures.put(variant, e.toString());
+            }
+        }
+
+        return failures;
     }
 
     /**
@@ -82,66 +253,293 @@ public class VariantAnnotationRepositoryImpl implements VariantAnnotationReposit
     @Override
     public VariantAnnotation mapAnnotationJson(String variant, String annotationJSON) throws IOException
     {
-        //String toMap = removeArrayBrackets(annotationJSON);
-        // TODO use Transformer.converToDbObject instead and remove the private function of this class
-        String toMap = JSON.serialize(convertToDbObject(annotationJSON));
+        return mapAnnotationJson(variant, parseAnnotationJson(annotationJSON));
+    }
 
+    /**
+     * Maps the given parsed annotation JSON tree onto a VariantAnnotation instance.
+     *
+     * @param variant           variant key
+     * @param annotationNode    parsed annotation JSON tree
+     * @return a VariantAnnotation instance
+     * @throws IOException
+     */
+    @Override
+    public VariantAnnotation mapAnnotationJson(String variant, JsonNode annotationNode) throws IOException
+    {
         VariantAnnotation vepVariantAnnotation;
-        ObjectMapper mapper = new ObjectMapper();
 
-        // map annotation string onto VariantAnnotation instance
-        vepVariantAnnotation = mapper.readValue(toMap, VariantAnnotation.class);
+        // map annotation tree onto VariantAnnotation instance (traverses the tree, no text parsing)
+        vepVariantAnnotation = ANNOTATION_READER.readValue(annotationNode);
         // include original variant value too
         vepVariantAnnotation.setVariant(variant);
-        //vepVariantAnnotation.setAnnotationJSON(annotationJSON);
 
         return vepVariantAnnotation;
     }
 
-	/**
-     * Transforms the given annotationJSON to a DBObject instance.
+    /**
+     * Parses the given raw annotation JSON string into a JSON tree.
      * If the given annotation JSON is an array, returns only the first element.
+     * The same tree can be used to both map and save the annotation.
      *
-     * @param annotationJSON    annotation JSON as a string
-     * @return DBObject instance
+     * @param annotationJSON    raw annotation JSON string
+     * @return parsed JSON tree
+     * @throws IOException
+     */
+    @Override
+    public JsonNode parseAnnotationJson(String annotationJSON) throws IOException
+    {
+        JsonNode annotationNode = ANNOTATION_READER.readTree(annotationJSON);
+
+        if (annotationNode == null || annotationNode.isNull() || annotationNode.isMissingNode())
+        {
+            throw new IOException("Empty annotation JSON");
+        }
+
+        // if it is a list, get the first element of the list, ignore the rest
+        if (annotationNode.isArray() && annotationNode.size() > 0)
+        {
+            annotationNode = annotationNode.get(0);
+        }
+
+        return annotationNode;
+    }
+
+    /**
+     * Retrieves the annotations for the given variants from the database
+     * by using a single query per chunk of variants instead of one query per variant.
+     *
+     * @param variants  variant keys
+     * @return annotations keyed on variant (variants not found in the database are not included)
      */
-    private DBObject convertToDbObject(String annotationJSON)
+    @Override
+    public Map<String, VariantAnnotation> findAnnotations(Collection<String> variants)
     {
-        DBObject dbObject = (DBObject) JSON.parse(annotationJSON);
+        Map<String, VariantAnnotation> annotations = new HashMap<>();
+        List<String> batch = new ArrayList<>();
 
-        // if it is a list, get the first element of the list
-        if (dbObject instanceof List)
+        // no need to query the same variant more than once
+        for (String variant: new LinkedHashSet<>(variants))
         {
-            List list = ((List) dbObject);
+            batch.add(variant);
 
-            // get the first element, ignore the rest
-            if (list.size() > 0)
+            if (batch.size() >= lookupBatchSize)
             {
-                dbObject = (DBObject) list.iterator().next();
+                findAnnotations(batch, annotations);
+                batch = new ArrayList<>();
             }
         }
 
-        return dbObject;
+        if (batch.size() > 0)
+        {
+            findAnnotations(batch, annotations);
+        }
+
+        return annotations;
+    }
+
+    private void findAnnotations(final List<String> variants, final Map<String, VariantAnnotation> annotations)
+    {
+        if (!packedId)
+        {
+            Query query = new Query(Criteria.where("_id").in(variants));
+            // the compressed full annotation is only needed for the raw JSON
+            query.fields().exclude(PAYLOAD_FIELD);
+
+            for (VariantAnnotation annotation: this.mongoTemplate.find(query, VariantAnnotation.class, DEFAULT_COLLECTION))
+            {
+                annotations.put(annotation.getVariant(), annotation);
+            }
+
+            return;
+        }
+
+        List<Object> ids = new ArrayList<>();
+
+        for (String variant: variants)
+        {
+            ids.add(getId(variant));
+        }
+
+        final Set<String> requested = new HashSet<>(variants);
+        final MongoConverter converter = this.mongoTemplate.getConverter();
+        Query query = new Query(Criteria.where("_id").in(ids));
+        query.fields().exclude(PAYLOAD_FIELD);
+
+        this.mongoTemplate.executeQuery(query, DEFAULT_COLLECTION,
+            new DocumentCallbackHandler() {
+                @Override
+                public void processDocument(DBObject dbObject) throws MongoException, DataAccessException
+                {
+                    Object variant = dbObject.containsField(VARIANT_FIELD) ?
+                        dbObject.get(VARIANT_FIELD) : dbObject.get("_id");
+
+                    // different variants may have the same packed key (hash collision),
+                    // only accept the documents of the requested variants
+                    if (variant instanceof String && requested.contains(variant))
+                    {
+                        // map the original variant key onto the id field of the model
+                        dbObject.put("_id", variant);
+                        annotations.put((String) variant, converter.read(VariantAnnotation.class, dbObject));
+                    }
+                }
+            });
     }
 
-	/**
+    /**
+     * Retrieves the full raw annotation JSON of the given variant from the database.
+     * Compressed annotations are decompressed only here.
      *
-     * @param annotationJSON    annotation JSON as a string
-     * @return  stripped string with array brackets removed
+     * @param variant   variant key
+     * @return raw annotation JSON string, or null if the variant is not in the database
+     * @throws IOException if the stored annotation cannot be decompressed
      */
-    private String removeArrayBrackets(String annotationJSON)
+    @Override
+    public String findAnnotationJson(String variant) throws IOException
     {
-        String stripped = annotationJSON;
+        DBObject dbObject = this.mongoTemplate.getCollection(DEFAULT_COLLECTION).findOne(
+            new BasicDBObject("_id", getId(variant)));
+
+        // not found, or a different variant with the same packed key
+        if (dbObject == null ||
+            (dbObject.containsField(VARIANT_FIELD) && !variant.equals(dbObject.get(VARIANT_FIELD))))
+        {
+            return null;
+        }
+
+        Object payload = dbObject.get(PAYLOAD_FIELD);
+
+        // not compressed, the document itself is the annotation
+        if (payload == null)
+        {
+            dbObject.removeField("_id");
+            dbObject.removeField(VARIANT_FIELD);
+            dbObject.removeField(VERSION_FIELD);
+
+            return JSON.serialize(dbObject);
+        }
+
+        byte[] data = payload instanceof Binary ? ((Binary) payload).getData() : (byte[]) payload;
+        Compression codec = dbObject.containsField(CODEC_FIELD) ?
+            Compression.forName(dbObject.get(CODEC_FIELD).toString()) : Compression.DEFLATE;
 
-        // if annotation JSON is actually an array, assume it is an array of size 1,
-        // and convert it to a single object by removing array brackets
-        if (annotationJSON.trim().startsWith("["))
+        if (codec == null)
         {
-            int start = annotationJSON.indexOf("[");
-            int end = annotationJSON.lastIndexOf("]");
-            stripped = annotationJSON.substring(start+1, end);
+            throw new IOException("Unknown annotation codec: " + dbObject.get(CODEC_FIELD));
         }
 
-        return stripped;
+        return new String(codec.decompress(data), UTF8);
+    }
+
+    /**
+     * Builds the document to be saved from the given annotation JSON tree.
+     * If a storage codec is set, only the fields mapped to the VariantAnnotation model
+     * are kept as regular (queryable) fields, the full annotation is kept as compressed binary.
+     *
+     * @param annotationNode    annotation JSON tree
+     * @return DBObject instance
+     * @throws IOException
+     */
+    private DBObject convertToStorageObject(JsonNode annotationNode) throws IOException
+    {
+        if (storageCodec == null)
+        {
+            return Transformer.convertToDbObject(annotationNode);
+        }
+
+        if (!annotationNode.isObject())
+        {
+            throw new IllegalArgumentException("Not a JSON object: " + annotationNode.getNodeType());
+        }
+
+        DBObject dbObject = Transformer.convertToDbObject(
+            mappedFields(annotationNode, getPersistentEntity(VariantAnnotation.class)));
+
+        dbObject.put(PAYLOAD_FIELD, new Binary(storageCodec.compress(Transformer.writer().writeValueAsBytes(annotationNode))));
+        dbObject.put(CODEC_FIELD, storageCodec.name());
+
+        return dbObject;
+    }
+
+    private DBObject convertToDbObject(AnnotationVersion version)
+    {
+        DBObject dbObject = new BasicDBObject();
+
+        // same field names as the mapping of the model
+        this.mongoTemplate.getConverter().write(version, dbObject);
+        dbObject.removeField("_class");
+
+        return dbObject;
+    }
+
+    /**
+     * Copies only the fields mapped to the given entity (recursively for the nested entities).
+     */
+    private ObjectNode mappedFields(final JsonNode node, MongoPersistentEntity<?> entity)
+    {
+        final ObjectNode mapped = JsonNodeFactory.instance.objectNode();
+
+        entity.doWithProperties(new PropertyHandler<MongoPersistentProperty>() {
+            @Override
+            public void doWithPersistentProperty(MongoPersistentProperty property)
+            {
+                JsonNode value = node.get(property.getFieldName());
+
+                if (value == null)
+                {
+                    return;
+                }
+
+                MongoPersistentEntity<?> nested = property.isEntity() ?
+                    getPersistentEntity(property.getActualType()) : null;
+
+                if (nested != null && value.isArray())
+                {
+                    ArrayNode elements = mapped.putArray(property.getFieldName());
+
+                    for (JsonNode element: value)
+                    {
+                        elements.add(element.isObject() ? mappedFields(element, nested) : element);
+                    }
+                }
+                else if (nested != null && value.isObject())
+                {
+                    mapped.set(property.getFieldName(), mappedFields(value, nested));
+                }
+                else
+                {
+                    mapped.set(property.getFieldName(), value);
+                }
+            }
+        });
+
+        return mapped;
+    }
+
+    private MongoPersistentEntity<?> getPersistentEntity(Class<?> type)
+    {
+        return this.mongoTemplate.getConverter().getMappingContext().getPersistentEntity(type);
+    }
+
+    /**
+     * @param variant   variant key
+     * @return packed key of the given variant if enabled and if the variant is a genomic variant,
+     *         the variant key itself otherwise
+     */
+    private Object getId(String variant)
+    {
+        byte[] packed = packedId ? Hgvs.pack(variant) : null;
+
+        return packed != null ? new Binary(packed) : variant;
+    }
+
+    private void setId(DBObject dbObject, String variant)
+    {
+        dbObject.put("_id", getId(variant));
+
+        if (packedId)
+        {
+            dbObject.put(VARIANT_FIELD, variant);
+        }
     }
 }
@@ -33,6 +33,8 @@
 package org.cbioportal.genome_nexus.annotation.service;
 
 import org.cbioportal.genome_nexus.annotation.domain.Hotspot;
+import org.cbioportal.genome_nexus.annotation.domain.HotspotMatch;
+import org.cbioportal.genome_nexus.annotation.domain.ProteinLocation;
 import org.cbioportal.genome_nexus.annotation.domain.TranscriptConsequence;
 
 import java.util.List;
@@ -43,6 +45,16 @@ import java.util.List;
 public interface HotspotService
 {
     List<Hotspot> getHotspots(String transcriptId);
-    List<Hotspot> getHotspots(TranscriptConsequence transcript);
+    List<HotspotMatch> getHotspots(TranscriptConsequence transcript);
+
+    /**
+     * Finds the hotspots overlapping each of the given protein locations,
+     * without annotating any variant.
+     *
+     * @param proteinLocations  transcript ids and protein positions
+     * @return hotspots overlapping any of the given locations, in the order of the locations
+     */
+    List<HotspotMatch> getHotspots(List<ProteinLocation> proteinLocations);
+
     List<Hotspot> getHotspots();
 }
@@ -32,8 +32,15 @@
 
 package org.cbioportal.genome_nexus.annotation.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotation;
 
+import org.springframework.web.client.RestClientException;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
 /**
  * @author Benjamin Gross
  */
@@ -41,4 +48,39 @@ public interface VariantAnnotationService
 {
     VariantAnnotation getAnnotation(String variant);
     String getRawAnnotation(String variant);
+
+    /**
+     * Retrieves raw annotation JSON for multiple variants at once.
+     * Variants which cannot be annotated by the service may be missing from the result.
+     *
+     * Variants are sent in batches, a failing batch does not affect the others:
+     * its variants are missing from the result and added to the given failures.
+     *
+     * @param variants  variant keys
+     * @param failures  the error of the failed batch is added here for each of its variants
+     * @return raw annotation JSON strings keyed on variant
+     */
+    Map<String, String> getRawAnnotations(Collection<String> variants, Map<String, RestClientException> failures);
+
+    /**
+     * Retrieves the annotation of a single variant as a JSON tree decoded directly
+     * from the response stream, without reading the response body into a string.
+     *
+     * @param variant   variant key
+     * @return parsed annotation JSON tree
+     * @throws IOException if the response is not a valid annotation JSON
+     */
+    JsonNode getAnnotationNode(String variant) throws IOException;
+
+    /**
+     * Retrieves the annotations for multiple variants at once as JSON trees decoded
+     * directly from the response stream, without reading the response body into a string.
+     * Variants which cannot be annotated by the service may be missing from the result.
+     * Failed batches are handled the same way as in getRawAnnotations.
+     *
+     * @param variants  variant keys
+     * @param failures  the error of the failed batch is added here for each of its variants
+     * @return parsed annotation JSON trees keyed on variant
+     */
+    Map<String, JsonNode> getAnnotationNodes(Collection<String> variants, Map<String, RestClientException> failures);
 }
@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.service.internal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.cbioportal.genome_nexus.annotation.domain.AnnotationVersion;
+import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotationRepository;
+import org.cbioportal.genome_nexus.annotation.util.Hgvs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Imports the JSON output of a local VEP run (one annotation per line, optionally gzipped)
+ * into the annotation database, without sending any request to the VEP web service.
+ *
+ * The file is read by a single thread and handed over in batches to the parsing workers
+ * through a bounded queue, so only a few batches are held in memory at a time. Each worker
+ * parses its batch and upserts it with a single unordered bulk write.
+ *
+ * Runs at startup when vep.import.file is set, see GenomeNexusAnnotation.main for the
+ * command line (offline) mode, which runs with the import profile.
+ */
+@Component
+public class AnnotationImporter implements CommandLineRunner
+{
+    public static final String FILE_PROPERTY = "vep.import.file";
+
+    // active in the command line import mode, disables the beans which use the remote services at startup
+    public static final String IMPORT_PROFILE = "import";
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    // marks the end of the input for the workers
+    private static final List<String> END_OF_INPUT = new ArrayList<>();
+
+    private final VariantAnnotationRepository variantAnnotationRepository;
+    private final AnnotationVersionPolicy annotationVersionPolicy;
+    private final String file;
+    private final String release;
+    private final int workers;
+    private final int batchSize;
+    private final long reportInterval;
+
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong imported = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @Autowired
+    public AnnotationImporter(VariantAnnotationRepository variantAnnotationRepository,
+                              AnnotationVersionPolicy annotationVersionPolicy,
+                              @Value("${" + FILE_PROPERTY + ":}") String file,
+                              @Value("${vep.import.release:}") String release,
+                              @Value("${vep.import.workers:4}") Integer workers,
+                              @Value("${vep.import.batch.size:1000}") Integer batchSize,
+                              @Value("${vep.import.report.interval:10}") Long reportInterval)
+    {
+        this.variantAnnotationRepository = variantAnnotationRepository;
+        this.annotationVersionPolicy = annotationVersionPolicy;
+        this.file = file.trim();
+        this.release = release.trim().length() > 0 ? release.trim() : null;
+        this.workers = Math.max(1, workers);
+        this.batchSize = Math.max(1, batchSize);
+        this.reportInterval = TimeUnit.SECONDS.toNanos(reportInterval);
+    }
+
+    /**
+     * @param args  command line arguments
+     * @return true if the import file is given on the command line
+     */
+    public static boolean isImportMode(String[] args)
+    {
+        for (String arg: args)
+        {
+            if (arg.startsWith("--" + FILE_PROPERTY + "="))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public void run(String... args) throws Exception
+    {
+        if (file.length() > 0)
+        {
+            importFile(new File(file));
+        }
+    }
+
+    /**
+     * Imports all annotations in the given file, blocks until complete.
+     *
+     * @param file  VEP JSON output, one annotation per line, optionally gzipped
+     * @throws IOException if the file cannot be read
+     * @throws InterruptedException
+     */
+    public void importFile(File file) throws IOException, InterruptedException
+    {
+        // all annotations of the same import share the same version
+        final AnnotationVersion version = annotationVersionPolicy.versionOf(release);
+        final BlockingQueue<List<String>> queue = new ArrayBlockingQueue<>(workers * 2);
+        final AtomicInteger activeWorkers = new AtomicInteger(workers);
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+
+        if (release == null)
+        {
+            logger.warn("vep.import.release is not set, imported annotations will be refreshed when requested");
+        }
+
+        logger.info("Importing annotations from " + file + " with " + workers + " workers");
+
+        for (int i = 0; i < workers; i++)
+        {
+            executor.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        List<String> lines;
+
+                        while ((lines = queue.take()) != END_OF_INPUT)
+                        {
+                            importBatch(lines, version);
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally {
+                        activeWorkers.decrementAndGet();
+                    }
+                }
+            });
+        }
+
+        long startTime = System.nanoTime();
+        long nextReport = startTime + reportInterval;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(file), "UTF-8")))
+        {
+            List<String> lines = new ArrayList<>(batchSize);
+            String line;
+
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.trim().length() == 0)
+                {
+                    continue;
+                }
+
+                read.incrementAndGet();
+                lines.add(line);
+
+                if (lines.size() >= batchSize)
+                {
+                    put(queue, lines, activeWorkers);
+                    lines = new ArrayList<>(batchSize);
+                }
+
+                if (System.nanoTime() >= nextReport)
+                {
+                    report(startTime);
+                    nextReport = System.nanoTime() + reportInterval;
+                }
+            }
+
+            if (lines.size() > 0)
+            {
+                put(queue, lines, activeWorkers);
+            }
+        }
+        finally {
+            try {
+                for (int i = 0; i < workers; i++)
+                {
+                    put(queue, END_OF_INPUT, activeWorkers);
+                }
+            }
+            catch (IllegalStateException e) {
+                // no worker left to stop
+            }
+
+            executor.shutdown();
+
+            // wait for the workers to import the remaining batches
+            while (!executor.awaitTermination(reportInterval, TimeUnit.NANOSECONDS))
+            {
+                report(startTime);
+            }
+        }
+
+        logger.info("Import complete -- " + progress(startTime));
+    }
+
+    /**
+     * Hands over the given batch to the workers. Blocks while the workers are busy,
+     * which keeps the memory footprint bounded, but fails instead of blocking forever
+     * if no worker is left to take the batch.
+     */
+    private void put(BlockingQueue<List<String>> queue, List<String> lines, AtomicInteger activeWorkers)
+        throws InterruptedException
+    {
+        while (!queue.offer(lines, 1, TimeUnit.SECONDS))
+        {
+            if (activeWorkers.get() == 0)
+            {
+                throw new IllegalStateException("All import workers have stopped");
+            }
+        }
+    }
+
+    private void importBatch(List<String> lines, AnnotationVersion version)
+    {
+        Map<String, JsonNode> annotationNodes = new LinkedHashMap<>();
+
+        for (String line: lines)
+        {
+            try {
+                JsonNode annotationNode = variantAnnotationRepository.parseAnnotationJson(line);
+                String variant = getVariantKey(annotationNode);
+
+                // no key, or the same variant more than once in the batch (only the last one is saved)
+                if (variant == null || annotationNodes.put(variant, annotationNode) != null)
+                {
+                    skipped.incrementAndGet();
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                // invalid line, never let it stop the worker
+                failed.incrementAndGet();
+            }
+        }
+
+        if (annotationNodes.size() == 0)
+        {
+            return;
+        }
+
+        try {
+            Map<String, String> failures = variantAnnotationRepository.saveAnnotations(annotationNodes, version);
+
+            imported.addAndGet(annotationNodes.size() - failures.size());
+            failed.addAndGet(failures.size());
+        }
+        catch (RuntimeException e) {
+            // database error, the other batches may still succeed
+            logger.error("importBatch -- " + e.toString());
+            failed.addAndGet(annotationNodes.size());
+        }
+    }
+
+    /**
+     * Derives the key of the given annotation the same way the controller does for a request:
+     * the normalized HGVS input. If VEP was run on another input format (VCF, ...), the genomic
+     * HGVS key is built from the location and the alleles of the variant.
+     *
+     * @param annotationNode    VEP annotation
+     * @return normalized variant key, or null if no key can be derived
+     */
+    private String getVariantKey(JsonNode annotationNode)
+    {
+        String input = annotationNode.path("input").asText();
+
+        if (Hgvs.isHgvs(input))
+        {
+            return Hgvs.normalize(input);
+        }
+
+        String[] alleles = annotationNode.path("allele_string").asText().split("/");
+
+        // multiple variant alleles cannot be represented by a single key
+        if (alleles.length != 2 || !annotationNode.has("start"))
+        {
+            return null;
+        }
+
+        long start = annotationNode.path("start").asLong();
+        long end = annotationNode.path("end").asLong(start);
+
+        // VEP denotes an insertion between two bases with start = end + 1
+        if (start > end)
+        {
+            long position = start;
+            start = end;
+            end = position;
+        }
+
+        return Hgvs.fromGenomicLocation(annotationNode.path("seq_region_name").asText(),
+            Long.toString(start),
+            Long.toString(end),
+            alleles[0],
+            alleles[1]);
+    }
+
+    private void report(long startTime)
+    {
+        logger.info("Importing annotations -- " + progress(startTime));
+    }
+
+    private String progress(long startTime)
+    {
+        double seconds = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)) / 1000.0;
+
+        return String.format("%d read, %d imported, %d skipped, %d failed in %.1f s (%.0f annotations/s)",
+            read.get(), imported.get(), skipped.get(), failed.get(), seconds, imported.get() / seconds);
+    }
+
+    /**
+     * Opens the given file, decompressing it if it is gzipped.
+     */
+    private static InputStream open(File file) throws IOException
+    {
+        PushbackInputStream input = new PushbackInputStream(
+            new BufferedInputStream(new FileInputStream(file), 1 << 16), 2);
+        byte[] magic = new byte[2];
+        int length = input.read(magic);
+
+        if (length > 0)
+        {
+            input.unread(magic, 0, length);
+        }
+
+        if (length == 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B)
+        {
+            return new GZIPInputStream(input, 1 << 16);
+        }
+
+        return input;
+    }
+}
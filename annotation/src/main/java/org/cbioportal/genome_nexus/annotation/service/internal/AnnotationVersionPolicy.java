@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.service.internal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.hash.Hashing;
+import org.cbioportal.genome_nexus.annotation.domain.AnnotationVersion;
+import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotation;
+import org.cbioportal.genome_nexus.annotation.util.Transformer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.*;
+
+/**
+ * Stamps the fetched annotations with the current upstream release, a fingerprint of the
+ * query parameters (vep.url) and the fetch time, and decides whether a cached annotation
+ * can still be served:
+ *
+ * FRESH:   served as is.
+ * STALE:   older than the soft age, or produced by another release or other query parameters.
+ *          Served as is, but should be refreshed in the background.
+ * EXPIRED: older than the hard age. Should not be served, has to be fetched again.
+ *
+ * The current release is retrieved in the background, the requests only read the last known release.
+ * Until the release is resolved the annotations are not stamped with any release (null), and an
+ * annotation without a release is never classified by release: it only becomes stale with age
+ * or with other query parameters.
+ */
+@Component
+public class AnnotationVersionPolicy
+{
+    public enum Freshness { FRESH, STALE, EXPIRED }
+
+    // release of the imported annotations produced by an unknown release
+    public static final String UNKNOWN_RELEASE = "unknown";
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    // retry interval after failing to retrieve the release
+    private static final long RELEASE_RETRY_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private final RestTemplate restTemplate;
+    private final VEPRateLimiter rateLimiter;
+    private final String releaseURL;
+    private final String queryFingerprint;
+    private final long softAge;
+    private final long hardAge;
+    private final long releaseCheckInterval;
+    private final ScheduledExecutorService scheduler;
+    private final Environment environment;
+
+    // last known release, updated by the scheduler thread only
+    private volatile String release;
+
+    @Autowired
+    public AnnotationVersionPolicy(RestTemplate restTemplate,
+                                   VEPRateLimiter rateLimiter,
+                                   Environment environment,
+                                   @Value("${vep.url}") String vepURL,
+                                   @Value("${vep.release.url:}") String releaseURL,
+                                   @Value("${vep.release.check.interval:86400}") Long releaseCheckInterval,
+                                   @Value("${vep.annotation.soft_age:2592000}") Long softAge,
+                                   @Value("${vep.annotation.hard_age:31536000}") Long hardAge)
+    {
+        this.restTemplate = restTemplate;
+        this.rateLimiter = rateLimiter;
+        this.environment = environment;
+        this.releaseURL = releaseURL.length() > 0 ? releaseURL : getDefaultReleaseURL(vepURL);
+        this.queryFingerprint = getQueryFingerprint(vepURL);
+        this.releaseCheckInterval = TimeUnit.SECONDS.toMillis(releaseCheckInterval);
+        this.softAge = TimeUnit.SECONDS.toMillis(softAge);
+        this.hardAge = TimeUnit.SECONDS.toMillis(hardAge);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "vep-release-check");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @PostConstruct
+    public void init()
+    {
+        // the import mode runs offline, imported annotations are stamped with the given release
+        if (releaseURL != null && !environment.acceptsProfiles(AnnotationImporter.IMPORT_PROFILE))
+        {
+            scheduleReleaseCheck(0);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Returns the version for the annotations fetched right now. Never sends a request,
+     * the release is the last known release (null until the first successful check).
+     *
+     * @return current annotation version
+     */
+    public AnnotationVersion currentVersion()
+    {
+        return new AnnotationVersion(release, queryFingerprint, new Date());
+    }
+
+    /**
+     * Returns the version for annotations produced right now outside of this service
+     * (for example by a local VEP run with the same parameters). Never sends a request.
+     * An unknown release is stamped as UNKNOWN_RELEASE, so that the annotations are refreshed
+     * once the current release is known.
+     *
+     * @param release   release of the annotations (may be null if unknown)
+     * @return annotation version with the given release
+     */
+    public AnnotationVersion versionOf(String release)
+    {
+        return new AnnotationVersion(release != null ? release : UNKNOWN_RELEASE,
+            queryFingerprint, new Date());
+    }
+
+    /**
+     * Never sends a request, only the last known release is taken into account.
+     *
+     * @param annotation    cached annotation
+     * @return freshness of the given annotation
+     */
+    public Freshness getFreshness(VariantAnnotation annotation)
+    {
+        AnnotationVersion version = annotation.getVersion();
+
+        // annotations cached before versioning: serve, but replace with a versioned one
+        // (the background refresh has its own rate budget, see annotation.refresh.rate_limit)
+        if (version == null)
+        {
+            return Freshness.STALE;
+        }
+
+        long age = version.getAge();
+
+        if (hardAge > 0 && age >= hardAge)
+        {
+            return Freshness.EXPIRED;
+        }
+
+        String currentRelease = release;
+
+        // compare the releases only if both are resolved, annotations fetched before the first
+        // release check are not stamped with any release
+        if ((softAge > 0 && age >= softAge) ||
+            !queryFingerprint.equals(version.getQueryFingerprint()) ||
+            (currentRelease != null && version.getRelease() != null &&
+                !currentRelease.equals(version.getRelease())))
+        {
+            return Freshness.STALE;
+        }
+
+        return Freshness.FRESH;
+    }
+
+    private void scheduleReleaseCheck(long delay)
+    {
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run()
+                {
+                    checkRelease();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            // shutting down
+        }
+    }
+
+    /**
+     * Retrieves the current release, and schedules the next check.
+     * Runs on the scheduler thread only, so the requests never wait for the remote service.
+     */
+    private void checkRelease()
+    {
+        long delay;
+
+        try {
+            rateLimiter.acquire();
+
+            String response = restTemplate.getForObject(releaseURL, String.class);
+            JsonNode info = response == null ? null : Transformer.readerFor(JsonNode.class).readTree(response);
+            JsonNode value = info == null ? null : info.get("release");
+
+            if (value != null)
+            {
+                release = value.asText();
+            }
+
+            delay = releaseCheckInterval;
+        }
+        catch (RestClientException | IOException e) {
+            // keep the last known release, try again later
+            logger.warn("checkRelease -- " + e.toString());
+            delay = RELEASE_RETRY_INTERVAL;
+        }
+        catch (InterruptedException e) {
+            // shutting down
+            return;
+        }
+
+        // a check interval of 0 retrieves the release only once
+        if (delay > 0)
+        {
+            scheduleReleaseCheck(delay);
+        }
+    }
+
+    /**
+     * http://grch37.rest.ensembl.org/vep/human/hgvs/VARIANT?... ->
+     * http://grch37.rest.ensembl.org/info/software?content-type=application/json
+     */
+    private static String getDefaultReleaseURL(String vepURL)
+    {
+        int index = vepURL.indexOf("/vep/");
+
+        return index < 0 ? null : vepURL.substring(0, index) + "/info/software?content-type=application/json";
+    }
+
+    /**
+     * Fingerprint of the endpoint and the query parameters, independent of the parameter order.
+     */
+    private static String getQueryFingerprint(String vepURL)
+    {
+        int index = vepURL.indexOf('?');
+        String endpoint = index < 0 ? vepURL : vepURL.substring(0, index);
+        String[] parameters = index < 0 ? new String[0] : vepURL.substring(index + 1).split("&");
+
+        Arrays.sort(parameters);
+
+        return Hashing.murmur3_32().hashString(
+            endpoint + "?" + Arrays.toString(parameters), Charset.forName("UTF-8")).toString();
+    }
+}
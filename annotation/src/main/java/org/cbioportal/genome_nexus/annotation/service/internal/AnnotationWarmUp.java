@@ -0,0 +1,519 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.service.internal;
+
+import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotation;
+import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotationRepository;
+import org.cbioportal.genome_nexus.annotation.util.Hgvs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the annotations of the variants listed in a file into the database,
+ * so that the common variants are already cached when the node starts serving requests.
+ *
+ * The file is either a list of HGVS keys (one per line) or a MAF file. Only the variants
+ * missing from the database are requested, in batches, with a pause between the batches
+ * in addition to the VEP rate limit. Progress is saved to a checkpoint file after each batch,
+ * so an interrupted warm-up continues where it left off.
+ *
+ * The warm-up started at startup (vep.warmup.file) keeps the health status OUT_OF_SERVICE
+ * until it is complete. It can also be started on demand via JMX, without affecting the health status.
+ */
+@Component
+@Profile("!" + AnnotationImporter.IMPORT_PROFILE)
+@ManagedResource(objectName = "org.cbioportal.genome_nexus:name=annotationWarmUp",
+    description = "Loads the annotations of the variants in a file into the cache")
+public class AnnotationWarmUp implements HealthIndicator, PublicMetrics
+{
+    public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    // MAF columns
+    private static final String CHROMOSOME = "Chromosome";
+    private static final String START_POSITION = "Start_Position";
+    private static final String END_POSITION = "End_Position";
+    private static final String REFERENCE_ALLELE = "Reference_Allele";
+    private static final String TUMOR_SEQ_ALLELE1 = "Tumor_Seq_Allele1";
+    private static final String TUMOR_SEQ_ALLELE2 = "Tumor_Seq_Allele2";
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final VariantAnnotationFetcher variantAnnotationFetcher;
+    private final VariantAnnotationRepository variantAnnotationRepository;
+    private final VariantAnnotationErrorCache variantAnnotationErrorCache;
+    private final String startupFile;
+    private final int batchSize;
+    private final long batchInterval;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    // whether the running warm-up is the one started at startup (the only one affecting the health)
+    private volatile boolean startupWarmUp;
+    private volatile boolean stopped;
+    private volatile String file;
+    private volatile String error;
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong cached = new AtomicLong();
+    private final AtomicLong loaded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @Autowired
+    public AnnotationWarmUp(VariantAnnotationFetcher variantAnnotationFetcher,
+                            VariantAnnotationRepository variantAnnotationRepository,
+                            VariantAnnotationErrorCache variantAnnotationErrorCache,
+                            @Value("${vep.warmup.file:}") String startupFile,
+                            @Value("${vep.warmup.batch.size:200}") Integer batchSize,
+                            @Value("${vep.warmup.batch.interval:1000}") Long batchInterval)
+    {
+        this.variantAnnotationFetcher = variantAnnotationFetcher;
+        this.variantAnnotationRepository = variantAnnotationRepository;
+        this.variantAnnotationErrorCache = variantAnnotationErrorCache;
+        this.startupFile = startupFile;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchInterval = batchInterval;
+    }
+
+    @PostConstruct
+    public void init()
+    {
+        if (startupFile.trim().length() > 0)
+        {
+            start(startupFile.trim(), true);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        stop();
+    }
+
+    /**
+     * Starts the warm-up in the background.
+     *
+     * @param file  path of a file of HGVS keys or a MAF file
+     * @return false if a warm-up is already running
+     */
+    @ManagedOperation(description = "Starts the warm-up with the given file of HGVS keys or MAF file")
+    public boolean start(String file)
+    {
+        return start(file, false);
+    }
+
+    private boolean start(final String file, boolean startup)
+    {
+        if (!running.compareAndSet(false, true))
+        {
+            return false;
+        }
+
+        this.startupWarmUp = startup;
+        this.file = file;
+        this.error = null;
+        this.stopped = false;
+        processed.set(0);
+        cached.set(0);
+        loaded.set(0);
+        failed.set(0);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    warmUp(new File(file));
+                }
+                catch (IOException | RuntimeException e) {
+                    error = e.toString();
+                    logger.error("warmUp(" + file + ") -- " + e.toString());
+                }
+                finally {
+                    startupWarmUp = false;
+                    running.set(false);
+                }
+            }
+        }, "annotation-warm-up");
+
+        thread.setDaemon(true);
+        thread.start();
+
+        return true;
+    }
+
+    /**
+     * Stops the running warm-up after the current batch, it can be resumed later.
+     */
+    @ManagedOperation(description = "Stops the running warm-up after the current batch")
+    public void stop()
+    {
+        stopped = true;
+    }
+
+    @ManagedAttribute(description = "Whether a warm-up is running")
+    public boolean isRunning()
+    {
+        return running.get();
+    }
+
+    @ManagedAttribute(description = "File of the last warm-up")
+    public String getFile()
+    {
+        return file;
+    }
+
+    @ManagedAttribute(description = "Number of variants processed")
+    public long getProcessed()
+    {
+        return processed.get();
+    }
+
+    @ManagedAttribute(description = "Number of variants already in the database")
+    public long getCached()
+    {
+        return cached.get();
+    }
+
+    @ManagedAttribute(description = "Number of variants loaded into the database")
+    public long getLoaded()
+    {
+        return loaded.get();
+    }
+
+    @ManagedAttribute(description = "Number of variants which could not be annotated")
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    @Override
+    public Health health()
+    {
+        // the node is not ready to serve requests until the startup warm-up is complete,
+        // a warm-up started on demand runs while the node keeps serving requests
+        Health.Builder builder = startupWarmUp ? Health.outOfService() : Health.up();
+
+        if (file != null)
+        {
+            builder.withDetail("file", file)
+                .withDetail("running", running.get())
+                .withDetail("processed", processed.get())
+                .withDetail("cached", cached.get())
+                .withDetail("loaded", loaded.get())
+                .withDetail("failed", failed.get());
+        }
+
+        if (error != null)
+        {
+            builder.withDetail("error", error);
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics()
+    {
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        metrics.add(new Metric<Number>("vep.warmup.running", running.get() ? 1 : 0));
+        metrics.add(new Metric<Number>("vep.warmup.processed", processed.get()));
+        metrics.add(new Metric<Number>("vep.warmup.cached", cached.get()));
+        metrics.add(new Metric<Number>("vep.warmup.loaded", loaded.get()));
+        metrics.add(new Metric<Number>("vep.warmup.failed", failed.get()));
+
+        return metrics;
+    }
+
+    private void warmUp(File file) throws IOException
+    {
+        File checkpoint = new File(file.getPath() + CHECKPOINT_SUFFIX);
+        long skip = readCheckpoint(checkpoint, file);
+        long position = 0;
+        Set<String> batch = new LinkedHashSet<>();
+
+        logger.info("Starting annotation warm-up from " + file + (skip > 0 ? ", resuming after " + skip + " variants" : ""));
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")))
+        {
+            VariantReader variants = new VariantReader(reader);
+            String variant;
+
+            while (!stopped && (variant = variants.next()) != null)
+            {
+                position++;
+
+                if (position <= skip)
+                {
+                    continue;
+                }
+
+                batch.add(variant);
+
+                if (batch.size() >= batchSize)
+                {
+                    processBatch(batch, position);
+                    writeCheckpoint(checkpoint, file, position);
+                    batch = new LinkedHashSet<>();
+                    pause();
+                }
+            }
+
+            if (!stopped && batch.size() > 0)
+            {
+                processBatch(batch, position);
+                writeCheckpoint(checkpoint, file, position);
+            }
+        }
+
+        if (stopped)
+        {
+            logger.info("Annotation warm-up stopped after " + processed.get() + " variants, can be resumed");
+        }
+        else
+        {
+            // complete, start from the beginning next time
+            if (checkpoint.exists() && !checkpoint.delete())
+            {
+                logger.warn("Could not delete the warm-up checkpoint " + checkpoint);
+            }
+
+            logger.info("Annotation warm-up complete: " + progress());
+        }
+    }
+
+    private void processBatch(Set<String> variants, long position)
+    {
+        Set<String> missing = new LinkedHashSet<>(variants);
+
+        missing.removeAll(variantAnnotationRepository.findAnnotations(missing).keySet());
+        cached.addAndGet(variants.size() - missing.size());
+
+        // do not request the variants which recently failed again
+        Set<String> errors = variantAnnotationErrorCache.getAll(missing).keySet();
+        failed.addAndGet(errors.size());
+        missing.removeAll(errors);
+
+        if (missing.size() > 0)
+        {
+            loadAnnotations(missing);
+        }
+
+        processed.addAndGet(variants.size());
+        logger.info("Annotation warm-up: " + progress() + " (" + position + " lines/records read)");
+    }
+
+    private void loadAnnotations(Set<String> variants)
+    {
+        // same path as the requests: saved to the database and to the memory cache,
+        // and the variants already being fetched by a request are not requested again
+        for (VariantAnnotation annotation: variantAnnotationFetcher.getVariantAnnotations(variants).values())
+        {
+            // only the successfully annotated variants are versioned
+            if (annotation.getVersion() != null)
+            {
+                loaded.incrementAndGet();
+            }
+            else
+            {
+                failed.incrementAndGet();
+            }
+        }
+    }
+
+    private void pause()
+    {
+        if (batchInterval <= 0)
+        {
+            return;
+        }
+
+        try {
+            Thread.sleep(batchInterval);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped = true;
+        }
+    }
+
+    private String progress()
+    {
+        return processed.get() + " variants processed, " + cached.get() + " already cached, " +
+            loaded.get() + " loaded, " + failed.get() + " failed";
+    }
+
+    /**
+     * @return number of variants already processed, 0 if there is no checkpoint for the given file
+     */
+    private long readCheckpoint(File checkpoint, File file)
+    {
+        if (!checkpoint.exists())
+        {
+            return 0;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(checkpoint)))
+        {
+            String[] parts = reader.readLine().split("\t");
+
+            // the file has changed since the checkpoint was written
+            if (parts.length != 2 || Long.parseLong(parts[0]) != file.length())
+            {
+                return 0;
+            }
+
+            return Long.parseLong(parts[1]);
+        }
+        catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring the warm-up checkpoint " + checkpoint + " -- " + e.toString());
+            return 0;
+        }
+    }
+
+    private void writeCheckpoint(File checkpoint, File file, long position)
+    {
+        try (Writer writer = new FileWriter(checkpoint))
+        {
+            writer.write(file.length() + "\t" + position + "\n");
+        }
+        catch (IOException e) {
+            // not fatal, the warm-up just cannot be resumed from this point
+            logger.warn("Could not write the warm-up checkpoint " + checkpoint + " -- " + e.toString());
+        }
+    }
+
+    /**
+     * Reads normalized HGVS keys from a list of HGVS keys, or from a MAF file
+     * (detected by its header line).
+     */
+    private static class VariantReader
+    {
+        private final BufferedReader reader;
+        private Map<String, Integer> columns;
+        private boolean headerRead;
+
+        public VariantReader(BufferedReader reader)
+        {
+            this.reader = reader;
+        }
+
+        /**
+         * @return next variant key, or null at the end of the file
+         */
+        public String next() throws IOException
+        {
+            String line;
+
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.trim().length() == 0 || line.startsWith("#"))
+                {
+                    continue;
+                }
+
+                String[] values = line.split("\t", -1);
+
+                if (!headerRead)
+                {
+                    headerRead = true;
+
+                    if (Arrays.asList(values).contains(START_POSITION))
+                    {
+                        columns = new HashMap<>();
+
+                        for (int i = 0; i < values.length; i++)
+                        {
+                            columns.put(values[i].trim(), i);
+                        }
+
+                        continue;
+                    }
+                }
+
+                String variant = columns == null ? Hgvs.normalize(values[0]) : fromMafRecord(values);
+
+                // skip the records which cannot be represented as a genomic variant
+                if (variant != null && variant.length() > 0)
+                {
+                    return variant;
+                }
+            }
+
+            return null;
+        }
+
+        private String fromMafRecord(String[] values)
+        {
+            String ref = value(values, REFERENCE_ALLELE);
+            String alt = value(values, TUMOR_SEQ_ALLELE2);
+
+            // the variant allele is usually in Tumor_Seq_Allele2, use Tumor_Seq_Allele1 if it is not
+            if (alt == null || alt.trim().length() == 0 || alt.trim().equalsIgnoreCase(ref == null ? "" : ref.trim()))
+            {
+                alt = value(values, TUMOR_SEQ_ALLELE1);
+            }
+
+            return Hgvs.fromGenomicLocation(value(values, CHROMOSOME),
+                value(values, START_POSITION),
+                value(values, END_POSITION),
+                ref,
+                alt);
+        }
+
+        private String value(String[] values, String column)
+        {
+            Integer index = columns.get(column);
+
+            return index == null || index >= values.length ? null : values[index];
+        }
+    }
+}
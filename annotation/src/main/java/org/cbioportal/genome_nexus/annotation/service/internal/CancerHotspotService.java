@@ -33,123 +33,398 @@
 package org.cbioportal.genome_nexus.annotation.service.internal;
 
 import org.cbioportal.genome_nexus.annotation.domain.Hotspot;
+import org.cbioportal.genome_nexus.annotation.domain.HotspotMatch;
+import org.cbioportal.genome_nexus.annotation.domain.HotspotRepository;
+import org.cbioportal.genome_nexus.annotation.domain.ProteinLocation;
 import org.cbioportal.genome_nexus.annotation.domain.TranscriptConsequence;
 import org.cbioportal.genome_nexus.annotation.service.HotspotService;
 import org.cbioportal.genome_nexus.annotation.util.Numerical;
 import org.cbioportal.genome_nexus.annotation.util.Transformer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.*;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * Serves the hotspots from an in-memory cache, which is loaded in the background at startup
+ * (from the database, or the snapshot file, or the remote API if neither has any hotspot)
+ * and refreshed periodically from the remote API. A refresh builds a new cache and swaps it
+ * atomically, so the readers never block and always see a complete cache (empty until the
+ * first load).
+ *
  * @author Selcuk Onur Sumer
  */
 @Service
+@Profile("!" + AnnotationImporter.IMPORT_PROFILE)
 public class CancerHotspotService implements HotspotService
 {
-    private HotspotCache cache;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    // retry interval while the initial load fails
+    private static final long RETRY_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private final AtomicReference<HotspotCache> cache = new AtomicReference<>(new HotspotCache());
+
+    private final RestTemplate restTemplate;
+    private final HotspotRepository hotspotRepository;
+    private final ScheduledExecutorService scheduler;
+
+    // validators of the last response for conditional requests and the retry state,
+    // only accessed by the scheduler thread
+    private String eTag;
+    private long lastModified = -1;
+    private boolean retryPending;
 
     private String hotspotsURL;
     @Value("${hotspots.url}")
     public void setHotspotsURL(String hotspotsURL) { this.hotspotsURL = hotspotsURL; }
 
-    @Override
-    public List<Hotspot> getHotspots(String transcriptId)
+    private String snapshotFile;
+    @Value("${hotspots.snapshot.file:}")
+    public void setSnapshotFile(String snapshotFile) { this.snapshotFile = snapshotFile.trim(); }
+
+    private Long refreshInterval;
+    @Value("${hotspots.refresh.interval:86400}")
+    public void setRefreshInterval(Long refreshInterval) { this.refreshInterval = refreshInterval; }
+
+    @Autowired
+    public CancerHotspotService(RestTemplate restTemplate, HotspotRepository hotspotRepository)
     {
-        // get it by using the specific API
-//        try
-//        {
-//            return Transformer.mapJsonToInstance(getHotspotsJSON(transcriptId), Hotspot.class);
-//        }
-//        catch (IOException e)
-//        {
-//            e.printStackTrace();
-//            return Collections.emptyList();
-//        }
-
-        //use cache instead
-        return getHotspotsFromCache(transcriptId);
+        this.restTemplate = restTemplate;
+        this.hotspotRepository = hotspotRepository;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "hotspot-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
-    @Override
-    public List<Hotspot> getHotspots(TranscriptConsequence transcript)
+    @PostConstruct
+    public void init()
     {
-        List<Hotspot> hotspots = new ArrayList<>();
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                // the remote API is only used for the refresh if the hotspots are available locally
+                boolean loaded = loadLocalHotspots();
+
+                Runnable refresh = new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        refresh();
+                    }
+                };
+
+                if (refreshInterval > 0)
+                {
+                    scheduler.scheduleWithFixedDelay(refresh, loaded ? refreshInterval : 0,
+                        refreshInterval, TimeUnit.SECONDS);
+                }
+                else if (!loaded)
+                {
+                    // load once
+                    refresh();
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Loads the hotspots saved in the database, or the snapshot file if the database is empty.
+     *
+     * @return true if any hotspot is loaded
+     */
+    private boolean loadLocalHotspots()
+    {
+        List<Hotspot> hotspots = Collections.emptyList();
+        String source = "database";
 
-        for (Hotspot hotspot : this.getHotspots(transcript.getTranscriptId()))
+        try {
+            hotspots = hotspotRepository.findAll();
+        }
+        catch (RuntimeException e) {
+            logger.warn("Failed to load the hotspots from the database -- " + e.toString());
+        }
+
+        if (hotspots.size() == 0 && snapshotFile.length() > 0 && new File(snapshotFile).exists())
         {
-            // only include hotspots overlapping the protein change position
-            // of the current transcript
-            if (Numerical.overlaps(hotspot.getResidue(),
-                                   transcript.getProteinStart(),
-                                   transcript.getProteinEnd()))
+            try {
+                hotspots = Transformer.mapJsonToInstance(
+                    new String(Files.readAllBytes(Paths.get(snapshotFile)), "UTF-8"), Hotspot.class);
+                source = snapshotFile;
+
+                saveHotspots(hotspots);
+            }
+            catch (IOException e) {
+                logger.warn("Failed to load the hotspots from " + snapshotFile + " -- " + e.toString());
+            }
+        }
+
+        if (hotspots.size() == 0)
+        {
+            return false;
+        }
+
+        cache.set(new HotspotCache(hotspots));
+        logger.info("Hotspot cache loaded from " + source + ": " + hotspots.size() + " hotspots");
+
+        return true;
+    }
+
+    /**
+     * Fetches the hotspots and replaces the cache, unless they have not been modified
+     * since the last fetch. The current cache is kept if the fetch fails.
+     * The fetched hotspots are saved to the database and to the snapshot file (if any).
+     */
+    private void refresh()
+    {
+        try {
+            ResponseEntity<String> response = fetchHotspotsJSON();
+
+            if (response.getStatusCode() == HttpStatus.NOT_MODIFIED)
             {
-                // TODO use a JSON view instead of copying fields to another model?
-                // we have data duplication here...
-                hotspot.setGeneId(transcript.getGeneId());
-                hotspot.setProteinStart(transcript.getProteinStart());
-                hotspot.setProteinEnd(transcript.getProteinEnd());
+                logger.debug("Hotspots not modified");
+                return;
+            }
+
+            List<Hotspot> hotspots = Transformer.mapJsonToInstance(response.getBody(), Hotspot.class);
 
-                hotspots.add(hotspot);
+            if (hotspots.size() > 0)
+            {
+                saveHotspots(hotspots);
+                writeSnapshot(response.getBody());
+
+                cache.set(new HotspotCache(hotspots));
+                logger.info("Hotspot cache loaded: " + hotspots.size() + " hotspots");
+
+                // only keep the validators of a usable response
+                eTag = response.getHeaders().getETag();
+                lastModified = response.getHeaders().getLastModified();
             }
         }
+        catch (RestClientException | IOException e) {
+            logger.error("Failed to load the hotspots -- " + e.toString());
 
-        return hotspots;
+            // do not wait for the next scheduled refresh if there are no hotspots at all
+            if (cache.get().getHotspots().size() == 0 && !retryPending)
+            {
+                retryPending = true;
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        retryPending = false;
+
+                        if (cache.get().getHotspots().size() == 0)
+                        {
+                            refresh();
+                        }
+                    }
+                }, RETRY_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+        catch (RuntimeException e) {
+            // an uncaught exception would cancel the scheduled refresh
+            logger.error("Failed to load the hotspots -- " + e.toString());
+        }
     }
 
-    @Override
-    public List<Hotspot> getHotspots()
+    /**
+     * Sends a conditional request if the previous response had an ETag or a Last-Modified date.
+     *
+     * @return response with all hotspots, or NOT_MODIFIED since the last fetch
+     */
+    private ResponseEntity<String> fetchHotspotsJSON()
     {
-        try
+        HttpHeaders headers = new HttpHeaders();
+
+        if (eTag != null)
         {
-            return Transformer.mapJsonToInstance(getHotspotsJSON(null), Hotspot.class);
+            headers.setIfNoneMatch(eTag);
         }
-        catch (IOException e)
+
+        if (lastModified >= 0)
         {
-            e.printStackTrace();
-            return Collections.emptyList();
+            headers.setIfModifiedSince(lastModified);
         }
+
+        return restTemplate.exchange(hotspotsURL, HttpMethod.GET, new HttpEntity<Void>(headers), String.class);
     }
 
-    private String getHotspotsJSON(String variables)
+    /**
+     * Replaces the hotspots in the database with the given ones.
+     * A failure is not fatal, the hotspots are still cached in memory.
+     */
+    private void saveHotspots(List<Hotspot> hotspots)
     {
-        String uri = hotspotsURL;
+        Set<String> ids = new HashSet<>();
 
-        if (variables != null &&
-            variables.length() > 0)
+        for (Hotspot hotspot : hotspots)
         {
-            // TODO partially hardcoded API URI!
-            uri += "/byTranscript/" + variables;
+            ids.add(hotspot.getId());
         }
 
-        RestTemplate restTemplate = new RestTemplate();
-        return restTemplate.getForObject(uri, String.class);
+        try {
+            // upsert first, so that the collection never misses a current hotspot,
+            // then remove the ones which are not in the current set anymore with a single query
+            hotspotRepository.save(hotspots);
+            hotspotRepository.deleteAllExcept(ids);
+        }
+        catch (RuntimeException e) {
+            logger.warn("Failed to save the hotspots to the database -- " + e.toString());
+        }
     }
 
-    private List<Hotspot> getHotspotsFromCache(String transcriptId)
+    private void writeSnapshot(String hotspotsJSON)
     {
-        // if null: not initialized yet
-        if (cache == null)
+        if (snapshotFile.length() == 0)
         {
-            List<Hotspot> hotspots = getHotspots();
+            return;
+        }
 
-            if (hotspots.size() > 0)
+        try {
+            // write to a temporary file first, so that the snapshot is never incomplete
+            Path snapshot = Paths.get(snapshotFile).toAbsolutePath();
+            Path temp = Files.createTempFile(snapshot.getParent(), "hotspots", ".tmp");
+
+            Files.write(temp, hotspotsJSON.getBytes("UTF-8"));
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            logger.warn("Failed to write the hotspot snapshot " + snapshotFile + " -- " + e.toString());
+        }
+    }
+
+    @Override
+    public List<Hotspot> getHotspots(String transcriptId)
+    {
+        return getHotspotsFromCache(transcriptId);
+    }
+
+    @Override
+    public List<HotspotMatch> getHotspots(TranscriptConsequence transcript)
+    {
+        List<Hotspot> hotspots = new ArrayList<>();
+
+        // only include hotspots overlapping the protein change position
+        // of the current transcript
+        findOverlapping(cache.get(),
+            transcript.getTranscriptId(),
+            Numerical.parsePositiveInteger(transcript.getProteinStart()),
+            Numerical.parsePositiveInteger(transcript.getProteinEnd()),
+            hotspots);
+
+        List<HotspotMatch> matches = new ArrayList<>(hotspots.size());
+
+        // the cached hotspots are shared, the transcript specific fields go to the match only
+        for (Hotspot hotspot : hotspots)
+        {
+            matches.add(new HotspotMatch(hotspot,
+                transcript.getGeneId(),
+                transcript.getProteinStart(),
+                transcript.getProteinEnd()));
+        }
+
+        return matches;
+    }
+
+    @Override
+    public List<HotspotMatch> getHotspots(List<ProteinLocation> proteinLocations)
+    {
+        // the same cache for all locations, even if a refresh completes in the meantime
+        HotspotCache cache = this.cache.get();
+        List<HotspotMatch> matches = new ArrayList<>();
+        List<Hotspot> hotspots = new ArrayList<>();
+
+        for (ProteinLocation location : proteinLocations)
+        {
+            if (location == null)
+            {
+                continue;
+            }
+
+            Integer proteinStart = location.getProteinStart();
+            Integer proteinEnd = location.getProteinEnd();
+
+            hotspots.clear();
+            findOverlapping(cache,
+                location.getTranscriptId(),
+                proteinStart == null ? -1 : proteinStart,
+                proteinEnd == null ? -1 : proteinEnd,
+                hotspots);
+
+            for (Hotspot hotspot : hotspots)
             {
-                this.cache = new HotspotCache(hotspots);
+                matches.add(new HotspotMatch(hotspot,
+                    null,
+                    proteinStart == null ? null : proteinStart.toString(),
+                    proteinEnd == null ? null : proteinEnd.toString()));
             }
         }
 
-        // still null: error at initialization
-        if (cache == null)
+        return matches;
+    }
+
+    /**
+     * Adds the hotspots of the given transcript overlapping the given protein positions.
+     * Same as Numerical.overlaps: if the end position is not valid (negative) the start position
+     * is used instead, if the start position is not valid only the end position is checked.
+     */
+    private static void findOverlapping(HotspotCache cache, String transcriptId, int start, int end,
+                                        List<Hotspot> hotspots)
+    {
+        if (start < 0)
         {
-            return Collections.emptyList();
+            start = end;
+        }
+        else if (end < start)
+        {
+            end = start;
         }
 
-        return cache.findByTranscriptId(transcriptId);
+        if (start >= 0)
+        {
+            cache.findOverlapping(transcriptId, start, end, hotspots);
+        }
+    }
+
+    @Override
+    public List<Hotspot> getHotspots()
+    {
+        return cache.get().getHotspots();
+    }
+
+    private List<Hotspot> getHotspotsFromCache(String transcriptId)
+    {
+        return cache.get().findByTranscriptId(transcriptId);
     }
 }
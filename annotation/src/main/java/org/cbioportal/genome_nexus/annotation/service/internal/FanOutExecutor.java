@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.service.internal;
+
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs independent tasks of a single request concurrently on a shared thread pool.
+ *
+ * The size of the shared pool limits the total number of concurrent tasks in the process,
+ * while each invocation is limited to a smaller number of concurrent tasks,
+ * so that a single large request cannot occupy the entire pool.
+ */
+@Component
+public class FanOutExecutor
+{
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ExecutorService executor;
+    private final Integer maxConcurrencyPerRequest;
+
+    @Autowired
+    public FanOutExecutor(@Value("${vep.concurrency.total:16}") Integer maxConcurrency,
+                          @Value("${vep.concurrency.per_request:4}") Integer maxConcurrencyPerRequest)
+    {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("fan-out-");
+        threadFactory.setDaemon(true);
+
+        this.executor = Executors.newFixedThreadPool(maxConcurrency, threadFactory);
+        this.maxConcurrencyPerRequest = Math.max(1, maxConcurrencyPerRequest);
+    }
+
+    /**
+     * Splits the given items into chunks no larger than the given size.
+     * Small inputs are split into more (smaller) chunks,
+     * so that they can still benefit from concurrent execution.
+     *
+     * @param items         items to partition
+     * @param maxChunkSize  max number of items in a single chunk
+     * @return list of chunks
+     */
+    public <T> List<List<T>> partition(Collection<T> items, int maxChunkSize)
+    {
+        List<List<T>> chunks = new ArrayList<>();
+        int chunkSize = (int) Math.ceil(items.size() / (double) maxConcurrencyPerRequest);
+        chunkSize = Math.max(1, Math.min(chunkSize, maxChunkSize));
+
+        List<T> chunk = new ArrayList<>();
+
+        for (T item: items)
+        {
+            chunk.add(item);
+
+            if (chunk.size() >= chunkSize)
+            {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+            }
+        }
+
+        if (chunk.size() > 0)
+        {
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Executes all given tasks and waits for them to complete.
+     * A failing task does not cancel the other tasks, but the failure is rethrown once
+     * all tasks are complete, so that the result of a failed task is never silently missing.
+     *
+     * @param tasks tasks to execute
+     * @return results in the same order as the tasks
+     * @throws UncheckedExecutionException if any task fails (the cause is the first failure)
+     * @throws CancellationException if interrupted while waiting for the tasks
+     */
+    public <T> List<T> invokeAll(List<? extends Callable<T>> tasks)
+    {
+        List<T> results = new ArrayList<>();
+        List<Future<T>> futures = new ArrayList<>();
+        Throwable failure = null;
+
+        // no need to hand off a single task to another thread
+        if (tasks.size() == 1)
+        {
+            try {
+                results.add(tasks.get(0).call());
+                return results;
+            }
+            catch (Exception e) {
+                logger.error("invokeAll -- " + e.toString());
+                throw new UncheckedExecutionException(e);
+            }
+        }
+
+        // limits the number of concurrent tasks for this invocation only
+        final Semaphore permits = new Semaphore(maxConcurrencyPerRequest);
+
+        try {
+            for (final Callable<T> task: tasks)
+            {
+                permits.acquire();
+
+                futures.add(executor.submit(new Callable<T>() {
+                    @Override
+                    public T call() throws Exception
+                    {
+                        try {
+                            return task.call();
+                        }
+                        finally {
+                            permits.release();
+                        }
+                    }
+                }));
+            }
+
+            for (Future<T> future: futures)
+            {
+                try {
+                    results.add(future.get());
+                }
+                catch (ExecutionException e) {
+                    logger.error("invokeAll -- " + e.getCause().toString());
+
+                    if (failure == null)
+                    {
+                        failure = e.getCause();
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            // the request is aborted, do not waste resources on the remaining tasks
+            for (Future<T> future: futures)
+            {
+                future.cancel(true);
+            }
+
+            Thread.currentThread().interrupt();
+            logger.error("invokeAll -- " + e.toString());
+
+            throw new CancellationException("Interrupted while waiting for the tasks");
+        }
+
+        if (failure != null)
+        {
+            throw new UncheckedExecutionException(failure);
+        }
+
+        return results;
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+}
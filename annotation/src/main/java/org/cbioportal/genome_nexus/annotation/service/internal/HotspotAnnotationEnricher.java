@@ -1,6 +1,6 @@
 package org.cbioportal.genome_nexus.annotation.service.internal;
 
-import org.cbioportal.genome_nexus.annotation.domain.Hotspot;
+import org.cbioportal.genome_nexus.annotation.domain.HotspotMatch;
 import org.cbioportal.genome_nexus.annotation.domain.TranscriptConsequence;
 import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotation;
 import org.cbioportal.genome_nexus.annotation.service.AnnotationEnricher;
@@ -34,7 +34,7 @@ public class HotspotAnnotationEnricher implements AnnotationEnricher
         {
             for (TranscriptConsequence transcript : annotation.getTranscriptConsequences())
             {
-                List<Hotspot> hotspots = hotspotService.getHotspots(transcript);
+                List<HotspotMatch> hotspots = hotspotService.getHotspots(transcript);
 
                 if (fullInfo) {
                     enrichWithFullInfo(transcript, hotspots);
@@ -46,13 +46,13 @@ public class HotspotAnnotationEnricher implements AnnotationEnricher
         }
     }
 
-    private void enrichWithSummary(TranscriptConsequence transcript, List<Hotspot> hotspots)
+    private void enrichWithSummary(TranscriptConsequence transcript, List<HotspotMatch> hotspots)
     {
         // add a boolean field to the transcript
         transcript.setDynamicProp("isHotspot", hotspots.size() > 0);
     }
 
-    private void enrichWithFullInfo(TranscriptConsequence transcript, List<Hotspot> hotspots)
+    private void enrichWithFullInfo(TranscriptConsequence transcript, List<HotspotMatch> hotspots)
     {
         // attach the full list of hotspots
         if (hotspots.size() > 0)
@@ -33,18 +33,24 @@
 package org.cbioportal.genome_nexus.annotation.service.internal;
 
 import org.cbioportal.genome_nexus.annotation.domain.Hotspot;
+import org.cbioportal.genome_nexus.annotation.util.Numerical;
 
 import java.util.*;
 
 /**
  * In-memory cache for hotspot mutations for better performance.
  *
+ * Residues are parsed into position ranges once, when the cache is built.
+ * The hotspots of each transcript are indexed by their start position,
+ * so that an overlap query does not parse or allocate anything.
+ * The cache is never modified once built, so it is shared by all threads without locking.
+ *
  * @author Selcuk Onur Sumer
  */
 public class HotspotCache
 {
     private List<Hotspot> hotspots;
-    private Map<String, List<Hotspot>> mapByTranscript;
+    private Map<String, TranscriptHotspots> mapByTranscript;
 
     public HotspotCache()
     {
@@ -53,28 +59,80 @@ public class HotspotCache
 
     public HotspotCache(List<Hotspot> hotspots)
     {
-        this.hotspots = hotspots;
+        this.hotspots = hotspots == null ? null : Collections.unmodifiableList(hotspots);
         this.mapByTranscript = initMapByTranscript(hotspots);
     }
 
+    /**
+     * @return all hotspots in the cache
+     */
+    public List<Hotspot> getHotspots()
+    {
+        if (hotspots == null)
+        {
+            return Collections.emptyList();
+        }
+
+        return hotspots;
+    }
+
     public List<Hotspot> findByTranscriptId(String transcriptId)
     {
-        List<Hotspot> hotspots = null;
+        TranscriptHotspots transcriptHotspots = getTranscriptHotspots(transcriptId);
 
-        if (transcriptId != null)
+        if (transcriptHotspots == null)
         {
-            hotspots = mapByTranscript.get(transcriptId.toLowerCase());
+            return Collections.emptyList();
         }
 
-        if (hotspots == null)
+        return transcriptHotspots.hotspots;
+    }
+
+    /**
+     * Finds the hotspots of the given transcript overlapping the given protein position range.
+     * Does not allocate any memory, other than growing the given result collection.
+     *
+     * @param transcriptId  transcript id
+     * @param start         protein start position
+     * @param end           protein end position (not smaller than the start position)
+     * @param results       overlapping hotspots are added to this collection, ordered by position
+     * @return number of overlapping hotspots
+     */
+    public int findOverlapping(String transcriptId, int start, int end, Collection<Hotspot> results)
+    {
+        TranscriptHotspots transcriptHotspots = getTranscriptHotspots(transcriptId);
+
+        if (transcriptHotspots == null)
         {
-            hotspots = Collections.emptyList();
+            return 0;
         }
 
-        return hotspots;
+        return transcriptHotspots.findOverlapping(start, end, results);
+    }
+
+    /**
+     * @param transcriptId  transcript id
+     * @param start         protein start position
+     * @param end           protein end position (not smaller than the start position)
+     * @return true if any hotspot of the given transcript overlaps the given protein position range
+     */
+    public boolean overlaps(String transcriptId, int start, int end)
+    {
+        return findOverlapping(transcriptId, start, end, null) > 0;
     }
 
-    private Map<String, List<Hotspot>> initMapByTranscript(List<Hotspot> hotspots)
+    private TranscriptHotspots getTranscriptHotspots(String transcriptId)
+    {
+        if (transcriptId == null)
+        {
+            return null;
+        }
+
+        // Ensembl ids are upper case, so toUpperCase usually returns the same instance
+        return mapByTranscript.get(transcriptId.toUpperCase());
+    }
+
+    private Map<String, TranscriptHotspots> initMapByTranscript(List<Hotspot> hotspots)
     {
         if (hotspots == null)
         {
@@ -89,18 +147,132 @@ public class HotspotCache
 
             if (transcriptId != null)
             {
-                List<Hotspot> list = map.get(transcriptId.toLowerCase());
+                List<Hotspot> list = map.get(transcriptId.toUpperCase());
 
                 if (list == null)
                 {
-                    list = new LinkedList<>();
-                    map.put(transcriptId.toLowerCase(), list);
+                    list = new ArrayList<>();
+                    map.put(transcriptId.toUpperCase(), list);
                 }
 
                 list.add(hotspot);
             }
         }
 
-        return map;
+        Map<String, TranscriptHotspots> index = new HashMap<>();
+
+        for (Map.Entry<String, List<Hotspot>> entry : map.entrySet())
+        {
+            index.put(entry.getKey(), new TranscriptHotspots(entry.getValue()));
+        }
+
+        return index;
+    }
+
+    /**
+     * Hotspots of a single transcript, sorted by the start position of their residue.
+     * Also keeps the max end position of the hotspots up to each index, so that the
+     * hotspots ending before the query start can be skipped with a binary search.
+     */
+    private static final class TranscriptHotspots
+    {
+        private final List<Hotspot> hotspots;
+
+        // hotspots with a valid residue, sorted by start position
+        private final Hotspot[] sorted;
+        private final int[] starts;
+        private final int[] ends;
+        private final int[] maxEnds;
+
+        public TranscriptHotspots(List<Hotspot> hotspots)
+        {
+            this.hotspots = Collections.unmodifiableList(hotspots);
+
+            final Map<Hotspot, int[]> ranges = new IdentityHashMap<>();
+            List<Hotspot> valid = new ArrayList<>();
+
+            for (Hotspot hotspot : hotspots)
+            {
+                int[] range = Numerical.extractRange(hotspot.getResidue());
+
+                // no position in the residue: never overlaps anything
+                if (range != null)
+                {
+                    ranges.put(hotspot, range);
+                    valid.add(hotspot);
+                }
+            }
+
+            // stable sort, hotspots with the same start keep their original order
+            Collections.sort(valid, new Comparator<Hotspot>() {
+                @Override
+                public int compare(Hotspot h1, Hotspot h2)
+                {
+                    return Integer.compare(ranges.get(h1)[0], ranges.get(h2)[0]);
+                }
+            });
+
+            sorted = valid.toArray(new Hotspot[valid.size()]);
+            starts = new int[sorted.length];
+            ends = new int[sorted.length];
+            maxEnds = new int[sorted.length];
+
+            for (int i = 0; i < sorted.length; i++)
+            {
+                int[] range = ranges.get(sorted[i]);
+
+                starts[i] = range[0];
+                ends[i] = range[1];
+                maxEnds[i] = i == 0 ? range[1] : Math.max(maxEnds[i - 1], range[1]);
+            }
+        }
+
+        public int findOverlapping(int start, int end, Collection<Hotspot> results)
+        {
+            // maxEnds is non-decreasing: skip the hotspots all ending before the query start
+            int from = firstIndexOf(maxEnds, start);
+            int count = 0;
+
+            // starts is sorted: stop at the first hotspot starting after the query end
+            for (int i = from; i < sorted.length && starts[i] <= end; i++)
+            {
+                if (ends[i] >= start)
+                {
+                    count++;
+
+                    if (results != null)
+                    {
+                        results.add(sorted[i]);
+                    }
+                }
+            }
+
+            return count;
+        }
+
+        /**
+         * @return index of the first value not smaller than the given value in the sorted array
+         */
+        private static int firstIndexOf(int[] values, int value)
+        {
+            int low = 0;
+            int high = values.length;
+
+            while (low < high)
+            {
+                int mid = (low + high) >>> 1;
+
+                if (values[mid] < value)
+                {
+                    low = mid + 1;
+                }
+                else
+                {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
     }
 }
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.service.internal;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide token bucket limiting the rate of VEP web service requests.
+ *
+ * Callers exceeding the rate wait (queue) for a token instead of failing.
+ * The rate is adjusted according to the rate limit headers returned by the web service,
+ * and all requests are paused when the service asks to retry later.
+ */
+@Component
+@Primary
+public class VEPRateLimiter implements PublicMetrics
+{
+    // rate limit headers used by the Ensembl REST API
+    public static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+    public static final String RESET_HEADER = "X-RateLimit-Reset";
+    public static final String RETRY_AFTER_HEADER = "Retry-After";
+
+    private static final double MIN_RATE = 0.1;
+
+    private final double maxRate;
+    private final double capacity;
+    private final String metricPrefix;
+
+    // token bucket state, guarded by this
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long pausedUntil;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong pauses = new AtomicLong();
+
+    @Autowired
+    public VEPRateLimiter(@Value("${vep.rate_limit.per_second:15}") Double maxRate,
+                          @Value("${vep.rate_limit.burst:15}") Integer capacity)
+    {
+        this(maxRate, capacity, "vep.rate_limit");
+    }
+
+    /**
+     * @param maxRate       maximum number of requests per second
+     * @param capacity      maximum number of requests sent at once
+     * @param metricPrefix  prefix of the published metrics
+     */
+    public VEPRateLimiter(Double maxRate, Integer capacity, String metricPrefix)
+    {
+        this.metricPrefix = metricPrefix;
+        this.maxRate = maxRate;
+        this.capacity = Math.max(1, capacity);
+        this.rate = maxRate;
+        this.tokens = this.capacity;
+        this.lastRefill = System.nanoTime();
+        this.pausedUntil = lastRefill;
+    }
+
+    /**
+     * Waits until a request can be sent to the web service.
+     *
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException
+    {
+        long start = System.nanoTime();
+        queueDepth.incrementAndGet();
+
+        try {
+            synchronized (this)
+            {
+                while (true)
+                {
+                    long now = System.nanoTime();
+                    long wait;
+
+                    refill(now);
+
+                    if (now - pausedUntil < 0)
+                    {
+                        wait = pausedUntil - now;
+                    }
+                    else if (tokens >= 1)
+                    {
+                        tokens -= 1;
+                        break;
+                    }
+                    else
+                    {
+                        wait = (long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1));
+                    }
+
+                    TimeUnit.NANOSECONDS.timedWait(this, Math.max(1, wait));
+                }
+            }
+        }
+        finally {
+            queueDepth.decrementAndGet();
+        }
+
+        long waitNanos = System.nanoTime() - start;
+
+        acquired.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+
+        long max = maxWaitNanos.get();
+
+        while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos))
+        {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    /**
+     * Adjusts the rate according to the rate limit headers of a web service response.
+     *
+     * @param headers   response headers
+     */
+    public synchronized void update(HttpHeaders headers)
+    {
+        if (headers == null)
+        {
+            return;
+        }
+
+        Double retryAfter = parseHeader(headers, RETRY_AFTER_HEADER);
+        Double remaining = parseHeader(headers, REMAINING_HEADER);
+        Double reset = parseHeader(headers, RESET_HEADER);
+
+        if (retryAfter != null)
+        {
+            pause(retryAfter);
+        }
+        else if (remaining != null && reset != null)
+        {
+            if (remaining < 1)
+            {
+                // quota exhausted, wait until the quota is reset
+                pause(reset);
+            }
+            else
+            {
+                // spread the remaining quota over the rest of the period
+                refill(System.nanoTime());
+                rate = Math.max(MIN_RATE, Math.min(maxRate, remaining / Math.max(1, reset)));
+            }
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * @param e web service error
+     * @return true if the request was rejected due to the rate limit (after all retries)
+     */
+    public static boolean isRateLimitError(RestClientException e)
+    {
+        return e instanceof HttpStatusCodeException &&
+            ((HttpStatusCodeException) e).getStatusCode() == HttpStatus.TOO_MANY_REQUESTS;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics()
+    {
+        List<Metric<?>> metrics = new ArrayList<>();
+        long count = acquired.get();
+
+        metrics.add(new Metric<>(metricPrefix + ".queue.depth", queueDepth.get()));
+        metrics.add(new Metric<>(metricPrefix + ".rate", currentRate()));
+        metrics.add(new Metric<>(metricPrefix + ".pauses", pauses.get()));
+        metrics.add(new Metric<>(metricPrefix + ".acquired", count));
+        metrics.add(new Metric<>(metricPrefix + ".wait.total",
+            TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get())));
+        metrics.add(new Metric<>(metricPrefix + ".wait.avg",
+            count > 0 ? TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / count) : 0));
+        metrics.add(new Metric<>(metricPrefix + ".wait.max",
+            TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get())));
+
+        return metrics;
+    }
+
+    private synchronized double currentRate()
+    {
+        return rate;
+    }
+
+    private void pause(double seconds)
+    {
+        long until = System.nanoTime() + (long) (seconds * TimeUnit.SECONDS.toNanos(1));
+
+        if (until - pausedUntil > 0)
+        {
+            pausedUntil = until;
+            pauses.incrementAndGet();
+        }
+
+        // do not send a burst of requests right after the pause
+        tokens = Math.min(tokens, 1);
+    }
+
+    private void refill(long now)
+    {
+        // no tokens are accumulated while paused
+        long from = lastRefill - pausedUntil < 0 ? pausedUntil : lastRefill;
+
+        if (now - from > 0)
+        {
+            tokens = Math.min(capacity, tokens + (now - from) * rate / TimeUnit.SECONDS.toNanos(1));
+        }
+
+        lastRefill = now;
+    }
+
+    private Double parseHeader(HttpHeaders headers, String name)
+    {
+        String value = headers.getFirst(name);
+
+        if (value != null)
+        {
+            try {
+                return Double.parseDouble(value.trim());
+            }
+            catch (NumberFormatException e) {
+                // Retry-After may also be an HTTP date, ignore anything other than seconds
+            }
+        }
+
+        return null;
+    }
+}
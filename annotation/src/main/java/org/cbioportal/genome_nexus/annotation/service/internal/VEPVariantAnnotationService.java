@@ -32,29 +32,71 @@
 
 package org.cbioportal.genome_nexus.annotation.service.internal;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.cbioportal.genome_nexus.annotation.domain.*;
 import org.cbioportal.genome_nexus.annotation.service.*;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.*;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.beans.factory.annotation.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.*;
+
 /**
  * @author Benjamin Gross
  */
 @Service
 public class VEPVariantAnnotationService implements VariantAnnotationService
 {
+    private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
     private String vepURL;
     @Value("${vep.url}")
     public void setVEPURL(String vepURL) { this.vepURL = vepURL; }
 
+    private Integer batchSize;
+    @Value("${vep.batch.size:200}")
+    public void setBatchSize(Integer batchSize) { this.batchSize = batchSize; }
+
+    // max number of times a request is retried after being rejected due to the rate limit
+    private Integer maxRetries;
+    @Value("${vep.rate_limit.max_retries:10}")
+    public void setMaxRetries(Integer maxRetries) { this.maxRetries = maxRetries; }
+
     private final EnrichmentService enrichmentService;
+    private final RestTemplate restTemplate;
+    private final VEPRateLimiter rateLimiter;
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Autowired
-    public VEPVariantAnnotationService(EnrichmentService enrichmentService)
+    public VEPVariantAnnotationService(EnrichmentService enrichmentService,
+                                       RestTemplate restTemplate,
+                                       VEPRateLimiter rateLimiter)
     {
         this.enrichmentService = enrichmentService;
+        this.restTemplate = restTemplate;
+        this.rateLimiter = rateLimiter;
     }
 
     public VariantAnnotation getAnnotation(String variant)
@@ -66,10 +108,358 @@ public class VEPVariantAnnotationService implements VariantAnnotationService
     }
 
     public String getRawAnnotation(String variant)
+    {
+        return exchange(getURI(variant), HttpMethod.GET, null, new StringExtractor());
+    }
+
+    public Map<String, String> getRawAnnotations(Collection<String> variants,
+                                                 Map<String, RestClientException> failures)
+    {
+        Map<String, String> rawAnnotations = new LinkedHashMap<>();
+        RestClientException rateLimitError = null;
+
+        for (List<String> batch: batches(variants))
+        {
+            // the service asked to back off, do not send the remaining batches
+            if (rateLimitError != null)
+            {
+                addFailure(batch, rateLimitError, failures);
+                continue;
+            }
+
+            try {
+                String response = exchange(getBatchURI(), HttpMethod.POST, batchRequestBody(batch), new StringExtractor());
+                rawAnnotations.putAll(splitRawAnnotations(response));
+            }
+            catch (RestClientException e) {
+                // keep the results of the other batches, only the variants of this batch are unresolved
+                logger.error("getRawAnnotations -- " + e.toString());
+                addFailure(batch, e, failures);
+
+                if (VEPRateLimiter.isRateLimitError(e))
+                {
+                    rateLimitError = e;
+                }
+            }
+        }
+
+        return rawAnnotations;
+    }
+
+    public JsonNode getAnnotationNode(String variant) throws IOException
+    {
+        try {
+            return exchange(getURI(variant), HttpMethod.GET, null, new ResponseExtractor<JsonNode>() {
+                @Override
+                public JsonNode extractData(ClientHttpResponse response) throws IOException
+                {
+                    return readFirstAnnotationNode(response.getBody());
+                }
+            });
+        }
+        catch (ResourceAccessException e) {
+            // a response which cannot be parsed is not a connection problem
+            if (e.getCause() instanceof JsonProcessingException)
+            {
+                throw (JsonProcessingException) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    public Map<String, JsonNode> getAnnotationNodes(Collection<String> variants,
+                                                    Map<String, RestClientException> failures)
+    {
+        Map<String, JsonNode> annotationNodes = new LinkedHashMap<>();
+        RestClientException rateLimitError = null;
+
+        for (List<String> batch: batches(variants))
+        {
+            // the service asked to back off, do not send the remaining batches
+            if (rateLimitError != null)
+            {
+                addFailure(batch, rateLimitError, failures);
+                continue;
+            }
+
+            try {
+                annotationNodes.putAll(exchange(getBatchURI(), HttpMethod.POST, batchRequestBody(batch),
+                    new ResponseExtractor<Map<String, JsonNode>>() {
+                        @Override
+                        public Map<String, JsonNode> extractData(ClientHttpResponse response) throws IOException
+                        {
+                            return readAnnotationNodes(response.getBody());
+                        }
+                    }));
+            }
+            catch (RestClientException e) {
+                // keep the results of the other batches, only the variants of this batch are unresolved
+                logger.error("getAnnotationNodes -- " + e.toString());
+                addFailure(batch, e, failures);
+
+                if (VEPRateLimiter.isRateLimitError(e))
+                {
+                    rateLimitError = e;
+                }
+            }
+        }
+
+        return annotationNodes;
+    }
+
+    private void addFailure(List<String> batch, RestClientException e, Map<String, RestClientException> failures)
+    {
+        for (String variant: batch)
+        {
+            failures.put(variant, e);
+        }
+    }
+
+    private String getURI(String variant)
     {
         //http://grch37.rest.ensembl.org/vep/human/hgvs/VARIANT?content-type=application/json&xref_refseq=1&ccds=1&canonical=1&domains=1&hgvs=1&numbers=1&protein=1
-        String uri = vepURL.replace("VARIANT", variant);
-        RestTemplate restTemplate = new RestTemplate();
-        return restTemplate.getForObject(uri, String.class);
+        return vepURL.replace("VARIANT", variant);
+    }
+
+    private String getBatchURI()
+    {
+        //http://grch37.rest.ensembl.org/vep/human/hgvs?content-type=application/json&xref_refseq=1&ccds=1&canonical=1&domains=1&hgvs=1&numbers=1&protein=1
+        return vepURL.replace("/VARIANT", "");
+    }
+
+    private Map<String, List<String>> batchRequestBody(List<String> variants)
+    {
+        Map<String, List<String>> body = new HashMap<>();
+        body.put("hgvs_notations", variants);
+
+        return body;
+    }
+
+    /**
+     * VEP limits the number of variants per POST request, so variants are sent in chunks.
+     */
+    private List<List<String>> batches(Collection<String> variants)
+    {
+        List<List<String>> batches = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+
+        for (String variant: variants)
+        {
+            batch.add(variant);
+
+            if (batch.size() >= batchSize)
+            {
+                batches.add(batch);
+                batch = new ArrayList<>();
+            }
+        }
+
+        if (batch.size() > 0)
+        {
+            batches.add(batch);
+        }
+
+        return batches;
+    }
+
+    /**
+     * Sends the request to VEP within the limits of the rate limiter.
+     * Requests rejected due to the rate limit (429) are queued again
+     * until the max number of retries is reached.
+     *
+     * @param uri       request URI
+     * @param method    request method
+     * @param body      request body to be sent as JSON (may be null)
+     * @param extractor reads the response body
+     * @return extracted response body
+     */
+    private <T> T exchange(String uri, HttpMethod method, Object body, final ResponseExtractor<T> extractor)
+    {
+        RequestCallback requestCallback = new JsonRequestCallback(body);
+        ResponseExtractor<T> responseExtractor = new ResponseExtractor<T>() {
+            @Override
+            public T extractData(ClientHttpResponse response) throws IOException
+            {
+                rateLimiter.update(response.getHeaders());
+                return extractor.extractData(response);
+            }
+        };
+
+        for (int attempt = 0; ; attempt++)
+        {
+            try {
+                rateLimiter.acquire();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ResourceAccessException("Interrupted while waiting for the VEP rate limiter");
+            }
+
+            try {
+                return restTemplate.execute(uri, method, requestCallback, responseExtractor);
+            }
+            catch (HttpClientErrorException e) {
+                // the rate limiter pauses all requests if the service asks to retry later
+                rateLimiter.update(e.getResponseHeaders());
+
+                if (e.getStatusCode() != HttpStatus.TOO_MANY_REQUESTS || attempt >= maxRetries)
+                {
+                    throw e;
+                }
+
+                logger.warn("VEP rate limit exceeded, retrying -- " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Splits the JSON array returned by the POST endpoint into individual annotations.
+     * VEP echoes the original variant key in the "input" field of each annotation.
+     *
+     * @param response  raw JSON array returned by VEP
+     * @return raw annotation JSON strings keyed on variant
+     */
+    private Map<String, String> splitRawAnnotations(String response)
+    {
+        Map<String, String> rawAnnotations = new LinkedHashMap<>();
+
+        if (response == null)
+        {
+            return rawAnnotations;
+        }
+
+        try
+        {
+            for (JsonNode annotation: objectMapper.readTree(response))
+            {
+                JsonNode input = annotation.get("input");
+
+                if (input != null)
+                {
+                    rawAnnotations.put(input.asText(), objectMapper.writeValueAsString(annotation));
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // variants missing from the result are handled individually by the caller
+            logger.error("splitRawAnnotations -- " + e.toString());
+        }
+
+        return rawAnnotations;
+    }
+
+    /**
+     * Decodes the JSON array returned by the POST endpoint one annotation at a time,
+     * so that only a single annotation tree is being built at any time.
+     *
+     * @param response  response stream of the JSON array returned by VEP
+     * @return annotation JSON trees keyed on variant
+     */
+    private Map<String, JsonNode> readAnnotationNodes(InputStream response)
+    {
+        Map<String, JsonNode> annotationNodes = new LinkedHashMap<>();
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(response))
+        {
+            if (parser.nextToken() != JsonToken.START_ARRAY)
+            {
+                throw new IOException("Expected a JSON array of annotations");
+            }
+
+            while (parser.nextToken() == JsonToken.START_OBJECT)
+            {
+                JsonNode annotation = parser.readValueAsTree();
+                JsonNode input = annotation.get("input");
+
+                if (input != null)
+                {
+                    annotationNodes.put(input.asText(), annotation);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // variants missing from the result are handled individually by the caller
+            logger.error("readAnnotationNodes -- " + e.toString());
+        }
+
+        return annotationNodes;
+    }
+
+    /**
+     * Decodes the annotation returned by the GET endpoint.
+     * If the response is an array, only the first element is decoded, the rest is ignored.
+     *
+     * @param response  response stream of the annotation JSON returned by VEP
+     * @return annotation JSON tree
+     * @throws IOException if the response is not valid JSON
+     */
+    private JsonNode readFirstAnnotationNode(InputStream response) throws IOException
+    {
+        try (JsonParser parser = objectMapper.getFactory().createParser(response))
+        {
+            JsonToken token = parser.nextToken();
+
+            if (token == JsonToken.START_ARRAY)
+            {
+                token = parser.nextToken();
+
+                // empty array, nothing to map
+                if (token == JsonToken.END_ARRAY)
+                {
+                    return objectMapper.createArrayNode();
+                }
+            }
+
+            if (token == null)
+            {
+                throw new JsonParseException("Empty annotation response", parser.getCurrentLocation());
+            }
+
+            return parser.readValueAsTree();
+        }
+    }
+
+    /**
+     * Reads the response body as a string.
+     */
+    private static class StringExtractor implements ResponseExtractor<String>
+    {
+        @Override
+        public String extractData(ClientHttpResponse response) throws IOException
+        {
+            MediaType contentType = response.getHeaders().getContentType();
+            Charset charset = contentType != null && contentType.getCharSet() != null ?
+                contentType.getCharSet() : DEFAULT_CHARSET;
+
+            return StreamUtils.copyToString(response.getBody(), charset);
+        }
+    }
+
+    /**
+     * Asks for a JSON response, and writes the request body (if any) as JSON.
+     */
+    private class JsonRequestCallback implements RequestCallback
+    {
+        private final Object body;
+
+        public JsonRequestCallback(Object body)
+        {
+            this.body = body;
+        }
+
+        @Override
+        public void doWithRequest(ClientHttpRequest request) throws IOException
+        {
+            request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+
+            if (body != null)
+            {
+                request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+                request.getBody().write(objectMapper.writeValueAsBytes(body));
+            }
+        }
     }
 }
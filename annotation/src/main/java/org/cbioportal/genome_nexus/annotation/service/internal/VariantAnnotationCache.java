@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.service.internal;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import org.cbioportal.genome_nexus.annotation.domain.TranscriptConsequence;
+import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * In-memory cache of parsed annotations in front of the annotation repository.
+ *
+ * Cached annotations are never modified: the cache hands out copies,
+ * so that enriching an annotation does not affect the cached instance.
+ */
+@Component
+public class VariantAnnotationCache implements PublicMetrics
+{
+    private final Cache<String, VariantAnnotation> cache;
+
+    @Autowired
+    public VariantAnnotationCache(@Value("${vep.annotation.cache.max_weight:500000}") Long maxWeight)
+    {
+        this.cache = CacheBuilder.newBuilder()
+            .maximumWeight(maxWeight)
+            .weigher(new Weigher<String, VariantAnnotation>() {
+                @Override
+                public int weigh(String variant, VariantAnnotation annotation)
+                {
+                    // transcripts make up most of the memory used by an annotation
+                    List<TranscriptConsequence> transcripts = annotation.getTranscriptConsequences();
+                    return 1 + (transcripts == null ? 0 : transcripts.size());
+                }
+            })
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Retrieves the cached annotations for the given variants.
+     *
+     * @param variants  variant keys
+     * @return copies of the cached annotations keyed on variant
+     *         (variants not in the cache are not included)
+     */
+    public Map<String, VariantAnnotation> getAll(Collection<String> variants)
+    {
+        Map<String, VariantAnnotation> annotations = new HashMap<>();
+
+        for (Map.Entry<String, VariantAnnotation> entry: cache.getAllPresent(variants).entrySet())
+        {
+            annotations.put(entry.getKey(), entry.getValue().copy());
+        }
+
+        return annotations;
+    }
+
+    /**
+     * Adds the given annotation to the cache. The annotation instance is stored as is,
+     * it should not be modified after being added to the cache.
+     *
+     * @param annotation    annotation to cache
+     */
+    public void put(VariantAnnotation annotation)
+    {
+        cache.put(annotation.getVariant(), annotation);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics()
+    {
+        List<Metric<?>> metrics = new ArrayList<>();
+        CacheStats stats = cache.stats();
+
+        metrics.add(new Metric<>("vep.annotation.cache.size", cache.size()));
+        metrics.add(new Metric<>("vep.annotation.cache.hits", stats.hitCount()));
+        metrics.add(new Metric<>("vep.annotation.cache.misses", stats.missCount()));
+        metrics.add(new Metric<>("vep.annotation.cache.evictions", stats.evictionCount()));
+        metrics.add(new Metric<>("vep.annotation.cache.hit_rate", stats.hitRate()));
+
+        return metrics;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.service.internal;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mongodb.MongoException;
+import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotation;
+import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotationError;
+import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotationErrorRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Negative cache for the variants which cannot be annotated by the web service
+ * (invalid or unsupported variants, unparseable responses).
+ *
+ * Errors are kept in memory and in the database until they expire,
+ * so that the same invalid variant is not sent to the web service again and again.
+ * Database errors are only logged: the negative cache never fails an annotation request.
+ */
+@Component
+public class VariantAnnotationErrorCache
+{
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final VariantAnnotationErrorRepository errorRepository;
+    private final Cache<String, VariantAnnotationError> cache;
+    private final Long expiry;
+
+    @Autowired
+    public VariantAnnotationErrorCache(VariantAnnotationErrorRepository errorRepository,
+                                       @Value("${vep.annotation.error.expiry:86400}") Long expiry,
+                                       @Value("${vep.annotation.error.cache.size:100000}") Long maxSize)
+    {
+        this.errorRepository = errorRepository;
+        this.expiry = expiry;
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(expiry, TimeUnit.SECONDS)
+            .build();
+    }
+
+    /**
+     * Retrieves the stored errors for the given variants.
+     *
+     * @param variants  variant keys
+     * @return error annotations keyed on variant (variants without an unexpired error are not included)
+     */
+    public Map<String, VariantAnnotation> getAll(Collection<String> variants)
+    {
+        Map<String, VariantAnnotation> annotations = new HashMap<>();
+        List<String> notInMemory = new ArrayList<>();
+
+        for (String variant: variants)
+        {
+            VariantAnnotationError error = cache.getIfPresent(variant);
+
+            if (error == null)
+            {
+                notInMemory.add(variant);
+            }
+            else if (!error.isExpired())
+            {
+                annotations.put(variant, new VariantAnnotation(variant, error.getMessage()));
+            }
+        }
+
+        if (notInMemory.size() > 0)
+        {
+            try {
+                for (VariantAnnotationError error: errorRepository.findAll(notInMemory))
+                {
+                    // the database removes expired documents only periodically
+                    if (!error.isExpired())
+                    {
+                        cache.put(error.getVariant(), error);
+                        annotations.put(error.getVariant(), new VariantAnnotation(error.getVariant(), error.getMessage()));
+                    }
+                }
+            }
+            catch (MongoException | DataAccessException e) {
+                // the variants are requested again, same as without a stored error
+                logger.error("getAll -- " + e.toString());
+            }
+        }
+
+        return annotations;
+    }
+
+    /**
+     * Stores the given errors until they expire.
+     *
+     * @param messages  error messages keyed on variant
+     */
+    public void putAll(Map<String, String> messages)
+    {
+        List<VariantAnnotationError> errors = new ArrayList<>();
+        Date expireAt = new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expiry));
+
+        for (String variant: messages.keySet())
+        {
+            VariantAnnotationError error = new VariantAnnotationError(variant, messages.get(variant), expireAt);
+
+            cache.put(variant, error);
+            errors.add(error);
+        }
+
+        if (errors.size() > 0)
+        {
+            try {
+                errorRepository.save(errors);
+            }
+            catch (MongoException | DataAccessException e) {
+                // the errors are still kept in memory
+                logger.error("putAll -- " + e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.service.internal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.cbioportal.genome_nexus.annotation.domain.AnnotationVersion;
+import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotation;
+import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotationRepository;
+import org.cbioportal.genome_nexus.annotation.service.VariantAnnotationService;
+import org.cbioportal.genome_nexus.annotation.util.SingleFlight;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Fetches the annotations from the web service and saves them to the caches.
+ *
+ * Shared by the requests, the background refresh and the warm-up, so that a variant is never
+ * fetched twice at the same time, and the web service errors are handled the same way everywhere:
+ * client errors are remembered by the error cache, transient errors are only reported.
+ */
+@Component
+public class VariantAnnotationFetcher
+{
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final VariantAnnotationService variantAnnotationService;
+    private final VariantAnnotationRepository variantAnnotationRepository;
+    private final FanOutExecutor fanOutExecutor;
+    private final CounterService counterService;
+    private final VariantAnnotationCache variantAnnotationCache;
+    private final VariantAnnotationErrorCache variantAnnotationErrorCache;
+    private final AnnotationVersionPolicy annotationVersionPolicy;
+
+    // variants currently being fetched from the web service by any caller
+    private final SingleFlight<String, VariantAnnotation> inFlightAnnotations = new SingleFlight<>();
+
+    // max number of variants fetched from the web service within a single task
+    private Integer batchSize;
+    @Value("${vep.batch.size:200}")
+    public void setBatchSize(Integer batchSize) { this.batchSize = batchSize; }
+
+    // decode the web service responses directly from the response stream instead of reading them into strings
+    private Boolean streamDecoding;
+    @Value("${vep.response.stream_decoding:false}")
+    public void setStreamDecoding(Boolean streamDecoding) { this.streamDecoding = streamDecoding; }
+
+    @Autowired
+    public VariantAnnotationFetcher(VariantAnnotationService variantAnnotationService,
+                                    VariantAnnotationRepository variantAnnotationRepository,
+                                    FanOutExecutor fanOutExecutor,
+                                    CounterService counterService,
+                                    VariantAnnotationCache variantAnnotationCache,
+                                    VariantAnnotationErrorCache variantAnnotationErrorCache,
+                                    AnnotationVersionPolicy annotationVersionPolicy)
+    {
+        this.variantAnnotationService = variantAnnotationService;
+        this.variantAnnotationRepository = variantAnnotationRepository;
+        this.fanOutExecutor = fanOutExecutor;
+        this.counterService = counterService;
+        this.variantAnnotationCache = variantAnnotationCache;
+        this.variantAnnotationErrorCache = variantAnnotationErrorCache;
+        this.annotationVersionPolicy = annotationVersionPolicy;
+    }
+
+    /**
+     * Fetches the annotations of the given variants from the web service, saves them to the database
+     * and to the memory cache, and remembers the variants which cannot be annotated.
+     * Variants already being fetched are not requested again, the caller waits for them instead.
+     * Does not look up the caches, the caller only passes the variants to fetch.
+     *
+     * @param variants  normalized variant keys
+     * @return annotation (or error annotation) of each variant, each caller gets its own copies
+     */
+    public Map<String, VariantAnnotation> getVariantAnnotations(Collection<String> variants)
+    {
+        Map<String, VariantAnnotation> variantAnnotations = new HashMap<>();
+        Map<String, VariantAnnotation> fetchedAnnotations = Collections.emptyMap();
+        Map<String, SingleFlight.Call<VariantAnnotation>> inFlightCalls = new LinkedHashMap<>();
+        List<String> variantsToFetch = new ArrayList<>();
+
+        // do not fetch the variants which are already being fetched by another caller,
+        // wait for it instead
+        for (String variant: variants)
+        {
+            SingleFlight.Call<VariantAnnotation> call = inFlightAnnotations.join(variant);
+
+            if (call == null)
+            {
+                variantsToFetch.add(variant);
+            }
+            else
+            {
+                inFlightCalls.put(variant, call);
+                counterService.increment("annotation.coalesced");
+            }
+        }
+
+        try {
+            fetchedAnnotations = fetchVariantAnnotations(variantsToFetch);
+        }
+        catch (RuntimeException | Error e) {
+            // release the waiting requests with the failure, they report it for these variants
+            for (String variant: variantsToFetch)
+            {
+                inFlightAnnotations.completeExceptionally(variant, e);
+            }
+
+            throw e;
+        }
+
+        // release the waiting requests. at this point the annotations are already saved
+        // to the cache, so any subsequent request will find them in the cache.
+        for (String variant: variantsToFetch)
+        {
+            inFlightAnnotations.complete(variant, fetchedAnnotations.get(variant));
+        }
+
+        // the fetched annotations are shared with the waiting requests,
+        // each request should work on its own copy (enrichment modifies the annotation)
+        for (String variant: variantsToFetch)
+        {
+            VariantAnnotation annotation = fetchedAnnotations.get(variant);
+
+            if (annotation != null)
+            {
+                variantAnnotations.put(variant, annotation.copy());
+            }
+        }
+
+        for (String variant: inFlightCalls.keySet())
+        {
+            try {
+                VariantAnnotation annotation = inFlightCalls.get(variant).get();
+
+                if (annotation != null)
+                {
+                    variantAnnotations.put(variant, annotation.copy());
+                }
+            }
+            catch (ExecutionException e) {
+                // the request fetching this variant failed, report the failure instead of leaving it out
+                variantAnnotations.put(variant, new VariantAnnotation(variant, e.getCause().toString()));
+                logger.error("getVariantAnnotation(" + variant + ") -- " + e.getCause().toString());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                variantAnnotations.put(variant, new VariantAnnotation(variant, e.toString()));
+                logger.error("getVariantAnnotation(" + variant + ") -- " + e.toString());
+            }
+        }
+
+        return variantAnnotations;
+    }
+
+    private Map<String, VariantAnnotation> fetchVariantAnnotations(Collection<String> variants)
+    {
+        Map<String, VariantAnnotation> variantAnnotations = new HashMap<>();
+        final Map<String, JsonNode> annotationsToSave = new ConcurrentHashMap<>();
+        final Map<String, String> errorsToSave = new ConcurrentHashMap<>();
+        List<Callable<Map<String, VariantAnnotation>>> tasks = new ArrayList<>();
+
+        for (final List<String> chunk: fanOutExecutor.partition(variants, batchSize))
+        {
+            tasks.add(new Callable<Map<String, VariantAnnotation>>() {
+                @Override
+                public Map<String, VariantAnnotation> call()
+                {
+                    // collected per chunk, so that a failed chunk does not leave anything to save
+                    Map<String, JsonNode> chunkAnnotationsToSave = new HashMap<>();
+                    Map<String, String> chunkErrorsToSave = new HashMap<>();
+
+                    try {
+                        Map<String, VariantAnnotation> chunkAnnotations =
+                            fetchVariantAnnotations(chunk, chunkAnnotationsToSave, chunkErrorsToSave);
+
+                        annotationsToSave.putAll(chunkAnnotationsToSave);
+                        errorsToSave.putAll(chunkErrorsToSave);
+
+                        return chunkAnnotations;
+                    }
+                    catch (RuntimeException e) {
+                        // unexpected failure: report it for the variants of this chunk only,
+                        // not saved as an error since it is not known to be permanent
+                        logger.error("fetchVariantAnnotations -- " + e.toString());
+                        Map<String, VariantAnnotation> chunkAnnotations = new HashMap<>();
+
+                        for (String variant: chunk)
+                        {
+                            chunkAnnotations.put(variant, new VariantAnnotation(variant, e.toString()));
+                        }
+
+                        return chunkAnnotations;
+                    }
+                }
+            });
+        }
+
+        if (variants.size() == 0)
+        {
+            return variantAnnotations;
+        }
+
+        // fetch and map the chunks concurrently. any failure is reported per variant by each chunk,
+        // a failing chunk does not affect the others, and the successful chunks are still saved
+        for (Map<String, VariantAnnotation> chunkAnnotations: fanOutExecutor.invokeAll(tasks))
+        {
+            variantAnnotations.putAll(chunkAnnotations);
+        }
+
+        // save everything to the cache as a properly parsed JSON with a single bulk write.
+        // failing to save an annotation does not affect the response.
+        if (annotationsToSave.size() > 0)
+        {
+            AnnotationVersion version = annotationVersionPolicy.currentVersion();
+            Map<String, String> failures = variantAnnotationRepository.saveAnnotations(annotationsToSave, version);
+
+            for (String variant: failures.keySet())
+            {
+                logger.error("saveAnnotations(" + variant + ") -- " + failures.get(variant));
+            }
+
+            // fetched annotations are never enriched directly, only copies of them
+            for (String variant: annotationsToSave.keySet())
+            {
+                VariantAnnotation annotation = variantAnnotations.get(variant);
+
+                annotation.setVersion(version);
+                variantAnnotationCache.put(annotation);
+            }
+        }
+
+        // remember the variants which cannot be annotated
+        if (errorsToSave.size() > 0)
+        {
+            variantAnnotationErrorCache.putAll(errorsToSave);
+        }
+
+        return variantAnnotations;
+    }
+
+    private Map<String, VariantAnnotation> fetchVariantAnnotations(List<String> variants,
+                                                                   Map<String, JsonNode> annotationsToSave,
+                                                                   Map<String, String> errorsToSave)
+    {
+        Map<String, VariantAnnotation> variantAnnotations = new HashMap<>();
+        Map<String, String> rawAnnotations = Collections.emptyMap();
+        Map<String, JsonNode> annotationNodes = Collections.emptyMap();
+        // a single invalid variant may cause the entire batch to be rejected (4xx),
+        // the variants of a rejected batch fall back to individual requests
+        Map<String, RestClientException> batchFailures = new HashMap<>();
+        // set once the service rejects a request due to the rate limit, even after the retries
+        RestClientException rateLimitError = null;
+
+        // get the annotations from the web service in batches,
+        // either as raw strings or as trees decoded directly from the response stream
+        if (streamDecoding)
+        {
+            annotationNodes = variantAnnotationService.getAnnotationNodes(variants, batchFailures);
+        }
+        else
+        {
+            rawAnnotations = variantAnnotationService.getRawAnnotations(variants, batchFailures);
+        }
+
+        for (String variant: variants)
+        {
+            String annotationJSON = rawAnnotations.get(variant);
+            JsonNode annotationNode = annotationNodes.get(variant);
+            RestClientException batchFailure = batchFailures.get(variant);
+
+            try {
+                // the batch failed for another reason than a rejected variant (server error, timeout,
+                // rate limit): individual requests would most likely fail the same way
+                if (batchFailure != null &&
+                    (!(batchFailure instanceof HttpClientErrorException) ||
+                        VEPRateLimiter.isRateLimitError(batchFailure)))
+                {
+                    throw batchFailure;
+                }
+
+                // the service asked to back off, do not send any more individual requests
+                if (rateLimitError != null && annotationNode == null && annotationJSON == null)
+                {
+                    throw rateLimitError;
+                }
+
+                // not included in the batch response,
+                // request individually to get a proper error message for this variant
+                if (annotationNode == null && streamDecoding)
+                {
+                    annotationNode = variantAnnotationService.getAnnotationNode(variant);
+                }
+                else if (annotationNode == null)
+                {
+                    if (annotationJSON == null)
+                    {
+                        annotationJSON = variantAnnotationService.getRawAnnotation(variant);
+                    }
+
+                    // parse only once, the same tree is used to both map and save the annotation
+                    annotationNode = variantAnnotationRepository.parseAnnotationJson(annotationJSON);
+                }
+
+                // construct a VariantAnnotation instance to return:
+                // this does not contain all the information obtained from the web service
+                // only the fields mapped to the VariantAnnotation model will be returned
+                variantAnnotations.put(variant,
+                    variantAnnotationRepository.mapAnnotationJson(variant, annotationNode));
+
+                // only successfully mapped annotations are saved to the cache
+                annotationsToSave.put(variant, annotationNode);
+            }
+            catch (HttpStatusCodeException e) {
+                // in case of web service error, do not terminate the whole process.
+                // just copy the response body (error message) for this variant
+                variantAnnotations.put(variant, new VariantAnnotation(variant, e.getResponseBodyAsString()));
+                logger.error("getVariantAnnotation(" + variant + ") -- " + e.toString());
+
+                if (VEPRateLimiter.isRateLimitError(e))
+                {
+                    rateLimitError = e;
+                }
+
+                // client errors (invalid variant) are permanent, except the rate limit error
+                if (e.getStatusCode().is4xxClientError() &&
+                    e.getStatusCode() != HttpStatus.TOO_MANY_REQUESTS)
+                {
+                    errorsToSave.put(variant, e.getResponseBodyAsString());
+                }
+            }
+            catch (RestClientException e) {
+                // connection error or timeout: report it for this variant only,
+                // not saved as an error since it is most likely transient
+                variantAnnotations.put(variant, new VariantAnnotation(variant, e.toString()));
+                logger.error("getVariantAnnotation(" + variant + ") -- " + e.toString());
+            }
+            catch (IOException e) {
+                // in case of parse error, do not terminate the whole process.
+                // just send the raw annotationJSON to the client
+                // (not available when decoding the response stream, send the parse error instead)
+                String message = annotationJSON != null ? annotationJSON : e.toString();
+                variantAnnotations.put(variant, new VariantAnnotation(variant, message));
+                logger.error("getVariantAnnotation(" + variant + ") -- " + e.toString());
+
+                errorsToSave.put(variant, message);
+            }
+        }
+
+        return variantAnnotations;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.util;
+
+import net.jpountz.lz4.LZ4Factory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression codecs for the stored documents.
+ */
+public enum Compression
+{
+    /**
+     * Smaller output, slower.
+     */
+    DEFLATE
+    {
+        @Override
+        public byte[] compress(byte[] data)
+        {
+            Deflater deflater = new Deflater();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+
+                while (!deflater.finished())
+                {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            }
+            finally {
+                deflater.end();
+            }
+
+            return out.toByteArray();
+        }
+
+        @Override
+        public byte[] decompress(byte[] data) throws IOException
+        {
+            Inflater inflater = new Inflater();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            try {
+                inflater.setInput(data);
+
+                while (!inflater.finished())
+                {
+                    int length = inflater.inflate(buffer);
+
+                    if (length == 0 && !inflater.finished() &&
+                        (inflater.needsInput() || inflater.needsDictionary()))
+                    {
+                        throw new IOException("Truncated deflate data");
+                    }
+
+                    out.write(buffer, 0, length);
+                }
+            }
+            catch (DataFormatException e) {
+                throw new IOException(e);
+            }
+            finally {
+                inflater.end();
+            }
+
+            return out.toByteArray();
+        }
+    },
+
+    /**
+     * Larger output, much faster.
+     * The output starts with the length of the original data (4 bytes).
+     */
+    LZ4
+    {
+        @Override
+        public byte[] compress(byte[] data)
+        {
+            byte[] compressed = LZ4Factory.fastestInstance().fastCompressor().compress(data);
+
+            return ByteBuffer.allocate(4 + compressed.length)
+                .putInt(data.length)
+                .put(compressed)
+                .array();
+        }
+
+        @Override
+        public byte[] decompress(byte[] data) throws IOException
+        {
+            try {
+                int length = ByteBuffer.wrap(data).getInt();
+                byte[] decompressed = new byte[length];
+
+                LZ4Factory.fastestInstance().fastDecompressor().decompress(data, 4, decompressed, 0, length);
+
+                return decompressed;
+            }
+            catch (RuntimeException e) {
+                throw new IOException(e);
+            }
+        }
+    };
+
+    private static final int BUFFER_SIZE = 8192;
+
+    public abstract byte[] compress(byte[] data);
+    public abstract byte[] decompress(byte[] data) throws IOException;
+
+    /**
+     * @param name  codec name (case insensitive), "none" or empty for no compression
+     * @return the codec with the given name, or null for no compression
+     */
+    public static Compression forName(String name)
+    {
+        if (name == null || name.trim().length() == 0 || name.trim().equalsIgnoreCase("none"))
+        {
+            return null;
+        }
+
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.util;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Static utility methods for HGVS variant keys.
+ */
+public class Hgvs
+{
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // genomic HGVS notation: <chromosome>:g.<change>, with an optional "chr" prefix
+    private static final Pattern GENOMIC = Pattern.compile(
+        "^(?:chr)?([0-9]+|X|Y|M|MT):g\\.(.+)$", Pattern.CASE_INSENSITIVE);
+
+    // any HGVS notation: <reference sequence>:<type>.<change>
+    private static final Pattern HGVS = Pattern.compile("^[^\\s:]+:[cgmnpr]\\.\\S+$");
+
+    private static final String[] CHANGE_KEYWORDS = {"DEL", "INS", "DUP", "INV"};
+
+    // start position of a genomic change, followed by the rest of the change (end position, alleles)
+    private static final Pattern POSITION = Pattern.compile("^(\\d+)(.*)$");
+
+    // chromosome (1 byte) + position (4 bytes) + hash of the change (8 bytes)
+    public static final int PACKED_KEY_LENGTH = 13;
+
+    private static final HashFunction CHANGE_HASH = Hashing.murmur3_128();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Normalizes the given HGVS variant key, so that different spellings of the same
+     * variant are mapped onto the same key:
+     * removes all whitespace, removes the "chr" prefix, uses X, Y and MT for the
+     * sex and mitochondrial chromosomes, and uses upper case for the alleles
+     * and lower case for the change keywords (del, ins, dup, inv).
+     *
+     * Only genomic keys are normalized beyond removing whitespace.
+     *
+     * @param variant   HGVS variant key
+     * @return normalized variant key
+     */
+    public static String normalize(String variant)
+    {
+        if (variant == null)
+        {
+            return null;
+        }
+
+        String key = WHITESPACE.matcher(variant).replaceAll("");
+        Matcher matcher = GENOMIC.matcher(key);
+
+        if (!matcher.matches())
+        {
+            return key;
+        }
+
+        return normalizeChromosome(matcher.group(1)) + ":g." + normalizeChange(matcher.group(2));
+    }
+
+    /**
+     * @param value     any string
+     * @return true if the given value is an HGVS variant key (genomic or not)
+     */
+    public static boolean isHgvs(String value)
+    {
+        return value != null && HGVS.matcher(value.trim()).matches();
+    }
+
+    /**
+     * Builds the genomic HGVS key of a variant from its genomic location and alleles,
+     * as given in a MAF file (where "-" denotes an empty allele).
+     *
+     * @param chromosome    chromosome name
+     * @param start         start position
+     * @param end           end position
+     * @param ref           reference allele
+     * @param alt           variant allele
+     * @return normalized genomic HGVS key, or null if the variant cannot be represented
+     */
+    public static String fromGenomicLocation(String chromosome, String start, String end, String ref, String alt)
+    {
+        if (isEmpty(chromosome) || isEmpty(start))
+        {
+            return null;
+        }
+
+        ref = isEmpty(ref) || ref.trim().equals("-") ? "" : ref.trim();
+        alt = isEmpty(alt) || alt.trim().equals("-") ? "" : alt.trim();
+        start = start.trim();
+        end = isEmpty(end) ? start : end.trim();
+
+        String range = start.equals(end) ? start : start + "_" + end;
+        String change;
+
+        if (ref.equalsIgnoreCase(alt))
+        {
+            // not a variant
+            return null;
+        }
+        else if (ref.length() == 0)
+        {
+            // insertion between start and end
+            change = start + "_" + end + "ins" + alt;
+        }
+        else if (alt.length() == 0)
+        {
+            change = range + "del";
+        }
+        else if (ref.length() == 1 && alt.length() == 1)
+        {
+            change = start + ref + ">" + alt;
+        }
+        else
+        {
+            change = range + "delins" + alt;
+        }
+
+        return normalize(chromosome + ":g." + change);
+    }
+
+    private static boolean isEmpty(String value)
+    {
+        return value == null || value.trim().length() == 0;
+    }
+
+    /**
+     * Normalizes the given chromosome name (without the "chr" prefix).
+     *
+     * @param chromosome    chromosome name
+     * @return normalized chromosome name
+     */
+    public static String normalizeChromosome(String chromosome)
+    {
+        String normalized = chromosome.toUpperCase();
+
+        if (normalized.equals("M"))
+        {
+            return "MT";
+        }
+
+        // ignore the numbers which are obviously not chromosomes (also too large to parse)
+        if (Character.isDigit(normalized.charAt(0)) && normalized.length() <= 9)
+        {
+            // also removes leading zeros
+            int number = Integer.parseInt(normalized);
+
+            // numeric sex chromosomes, as used in some MAF files
+            if (number == 23)
+            {
+                return "X";
+            }
+            else if (number == 24)
+            {
+                return "Y";
+            }
+
+            return Integer.toString(number);
+        }
+
+        return normalized;
+    }
+
+    private static String normalizeChange(String change)
+    {
+        String normalized = change.toUpperCase();
+
+        for (String keyword: CHANGE_KEYWORDS)
+        {
+            normalized = normalized.replace(keyword, keyword.toLowerCase());
+        }
+
+        return normalized;
+    }
+
+    /**
+     * Encodes the given genomic HGVS key into a compact binary key:
+     * chromosome (1 byte), start position (4 bytes, big endian) and a 64-bit hash
+     * of the rest of the change (end position and alleles).
+     * Keys of the same chromosome are sorted by position.
+     *
+     * Different changes may have the same packed key in case of a hash collision,
+     * so the original key should be kept along with the packed key.
+     *
+     * @param variant   HGVS variant key
+     * @return packed key, or null if the given key is not a genomic HGVS key
+     */
+    public static byte[] pack(String variant)
+    {
+        String key = normalize(variant);
+
+        if (key == null)
+        {
+            return null;
+        }
+
+        Matcher matcher = GENOMIC.matcher(key);
+
+        if (!matcher.matches())
+        {
+            return null;
+        }
+
+        Matcher change = POSITION.matcher(matcher.group(2));
+        int chromosome = chromosomeCode(matcher.group(1));
+
+        if (!change.matches() || chromosome < 0)
+        {
+            return null;
+        }
+
+        long position = Long.parseLong(change.group(1));
+
+        // does not fit into 4 bytes, not a valid position anyway
+        if (position > 0xFFFFFFFFL)
+        {
+            return null;
+        }
+
+        return ByteBuffer.allocate(PACKED_KEY_LENGTH)
+            .put((byte) chromosome)
+            .putInt((int) position)
+            .putLong(CHANGE_HASH.hashString(change.group(2), UTF8).asLong())
+            .array();
+    }
+
+    /**
+     * @param chromosome    normalized chromosome name
+     * @return chromosome code between 1 and 255, or -1 if the chromosome cannot be encoded
+     */
+    private static int chromosomeCode(String chromosome)
+    {
+        switch (chromosome)
+        {
+            case "X":
+                return 23;
+            case "Y":
+                return 24;
+            case "MT":
+                return 25;
+            default:
+                // 23 and 24 are never used as a number after normalization, 25 is reserved for MT
+                if (chromosome.length() > 3 || chromosome.equals("25"))
+                {
+                    return -1;
+                }
+
+                int number = Integer.parseInt(chromosome);
+                return number > 0 && number <= 255 ? number : -1;
+        }
+    }
+}
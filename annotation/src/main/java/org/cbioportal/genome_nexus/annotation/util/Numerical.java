@@ -71,6 +71,55 @@ public class Numerical
         return list;
     }
 
+    /**
+     * Extracts the range of positive integers from the given input string,
+     * that is the min and the max of all integers in the string.
+     *
+     * @param input input string (a single value or a range value)
+     * @return  {min, max} array, or null if there is no integer in the input
+     */
+    public static int[] extractRange(String input)
+    {
+        List<Integer> positions = extractPositiveIntegers(input);
+
+        if (positions.size() == 0)
+        {
+            return null;
+        }
+
+        return new int[] {Collections.min(positions), Collections.max(positions)};
+    }
+
+    /**
+     * Parses the given string as a non-negative integer, without any memory allocation.
+     *
+     * @param input input string
+     * @return  integer value, or -1 if the input is not a number of at most 9 digits
+     */
+    public static int parsePositiveInteger(String input)
+    {
+        if (input == null || input.length() == 0 || input.length() > 9)
+        {
+            return -1;
+        }
+
+        int value = 0;
+
+        for (int i = 0; i < input.length(); i++)
+        {
+            char c = input.charAt(i);
+
+            if (c < '0' || c > '9')
+            {
+                return -1;
+            }
+
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
 	/**
      * Checks if the given input value overlaps the start and end values.
      * Input value can be a range value too.
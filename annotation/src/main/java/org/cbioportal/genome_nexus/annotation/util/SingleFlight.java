@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces concurrent calls for the same key into a single call.
+ *
+ * The first caller to join a key becomes responsible for producing the value,
+ * and must complete the call, either with a value or with the failure. Any other caller joining
+ * the same key before completion waits for the value (or the failure) of the first caller.
+ *
+ * @param <K>   key type
+ * @param <V>   value type
+ */
+public class SingleFlight<K, V>
+{
+    private final ConcurrentMap<K, Call<V>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * Joins the in-flight call for the given key.
+     *
+     * @param key   key
+     * @return  in-flight call to wait for, or null if there is no in-flight call
+     *          (in that case the caller is now responsible for completing the call)
+     */
+    public Call<V> join(K key)
+    {
+        return calls.putIfAbsent(key, new Call<V>());
+    }
+
+    /**
+     * Completes the call for the given key, and releases all the waiting callers.
+     *
+     * @param key   key
+     * @param value value to pass to the waiting callers
+     */
+    public void complete(K key, V value)
+    {
+        Call<V> call = calls.remove(key);
+
+        if (call != null)
+        {
+            call.complete(value, null);
+        }
+    }
+
+    /**
+     * Completes the call for the given key with a failure, and releases all the waiting callers.
+     *
+     * @param key       key
+     * @param failure   failure rethrown to the waiting callers
+     */
+    public void completeExceptionally(K key, Throwable failure)
+    {
+        Call<V> call = calls.remove(key);
+
+        if (call != null)
+        {
+            call.complete(null, failure);
+        }
+    }
+
+    /**
+     * @return number of currently in-flight calls
+     */
+    public int size()
+    {
+        return calls.size();
+    }
+
+    public static class Call<V>
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile V value;
+        private volatile Throwable failure;
+
+        private void complete(V value, Throwable failure)
+        {
+            this.value = value;
+            this.failure = failure;
+            this.done.countDown();
+        }
+
+        /**
+         * Waits for the call to complete.
+         *
+         * @return the value produced by the responsible caller
+         * @throws InterruptedException
+         * @throws ExecutionException if the responsible caller failed (the cause is the failure)
+         */
+        public V get() throws InterruptedException, ExecutionException
+        {
+            done.await();
+
+            if (failure != null)
+            {
+                throw new ExecutionException(failure);
+            }
+
+            return value;
+        }
+    }
+}
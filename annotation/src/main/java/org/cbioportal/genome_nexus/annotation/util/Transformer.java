@@ -32,19 +32,89 @@
 
 package org.cbioportal.genome_nexus.annotation.util;
 
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 import com.mongodb.util.JSON;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author Selcuk Onur Sumer
  */
 public class Transformer
 {
+    // ObjectMapper and ObjectReader instances are thread safe once configured,
+    // sharing them avoids rebuilding the (de)serializer caches for every call
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectWriter WRITER = OBJECT_MAPPER.writer();
+
+    private static final ConcurrentMap<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Class<?>, ObjectReader> LIST_READERS = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a shared writer.
+     *
+     * @return ObjectWriter instance
+     */
+    public static ObjectWriter writer()
+    {
+        return WRITER;
+    }
+
+    /**
+     * Returns a shared reader for the given type.
+     *
+     * @param type  target class
+     * @return ObjectReader instance for the given type
+     */
+    public static ObjectReader readerFor(Class<?> type)
+    {
+        ObjectReader reader = READERS.get(type);
+
+        if (reader == null)
+        {
+            reader = OBJECT_MAPPER.readerFor(type);
+            READERS.putIfAbsent(type, reader);
+        }
+
+        return reader;
+    }
+
+    /**
+     * Returns a shared reader for a list of the given type.
+     * A single JSON object is read as a list of size 1.
+     *
+     * @param type  element class
+     * @return ObjectReader instance for a list of the given type
+     */
+    public static ObjectReader listReaderFor(Class<?> type)
+    {
+        ObjectReader reader = LIST_READERS.get(type);
+
+        if (reader == null)
+        {
+            reader = OBJECT_MAPPER
+                .readerFor(OBJECT_MAPPER.getTypeFactory().constructCollectionType(List.class, type))
+                .with(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
+            LIST_READERS.putIfAbsent(type, reader);
+        }
+
+        return reader;
+    }
+
     /**
      * Transforms the given jsonString into a list of DBObject instances.
      *
@@ -81,17 +151,86 @@ public class Transformer
      */
     public static <T> List<T> mapJsonToInstance(String jsonString, Class<T> type) throws IOException
     {
-        List<T> list = new ArrayList<>();
+        if (jsonString == null || jsonString.trim().length() == 0)
+        {
+            return Collections.emptyList();
+        }
+
+        // map the whole json string (single object or array) onto a list of the given type in one pass
+        return listReaderFor(type).readValue(jsonString);
+    }
 
-        for (DBObject dbObject: convertToDbObject(jsonString))
+    /**
+     * Transforms the given JSON tree into a DBObject instance without
+     * serializing it back to a string and parsing it again.
+     *
+     * @param jsonNode  JSON object or array node
+     * @return DBObject instance (BasicDBList in case of an array)
+     */
+    public static DBObject convertToDbObject(JsonNode jsonNode)
+    {
+        if (!jsonNode.isContainerNode())
+        {
+            throw new IllegalArgumentException("Not a JSON object or array: " + jsonNode.getNodeType());
+        }
+
+        return (DBObject) convertToDbValue(jsonNode);
+    }
+
+    private static Object convertToDbValue(JsonNode jsonNode)
+    {
+        if (jsonNode.isObject())
         {
-            String toMap = JSON.serialize(dbObject);
-            ObjectMapper mapper = new ObjectMapper();
+            BasicDBObject dbObject = new BasicDBObject();
+            Iterator<Map.Entry<String, JsonNode>> fields = jsonNode.fields();
+
+            while (fields.hasNext())
+            {
+                Map.Entry<String, JsonNode> field = fields.next();
+                dbObject.put(field.getKey(), convertToDbValue(field.getValue()));
+            }
 
-            // map json string onto the given class type
-            list.add(mapper.readValue(toMap, type));
+            return dbObject;
         }
+        else if (jsonNode.isArray())
+        {
+            BasicDBList dbList = new BasicDBList();
+
+            for (JsonNode element: jsonNode)
+            {
+                dbList.add(convertToDbValue(element));
+            }
 
-        return list;
+            return dbList;
+        }
+        else if (jsonNode.isTextual())
+        {
+            return jsonNode.textValue();
+        }
+        // keep the same number types as JSON.parse: Integer, Long or Double
+        else if (jsonNode.isInt())
+        {
+            return jsonNode.intValue();
+        }
+        else if (jsonNode.isIntegralNumber())
+        {
+            return jsonNode.longValue();
+        }
+        else if (jsonNode.isNumber())
+        {
+            return jsonNode.doubleValue();
+        }
+        else if (jsonNode.isBoolean())
+        {
+            return jsonNode.booleanValue();
+        }
+        else if (jsonNode.isNull() || jsonNode.isMissingNode())
+        {
+            return null;
+        }
+        else
+        {
+            return jsonNode.asText();
+        }
     }
 }
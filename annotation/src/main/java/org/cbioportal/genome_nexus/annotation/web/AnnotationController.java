@@ -32,23 +32,42 @@
 
 package org.cbioportal.genome_nexus.annotation.web;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.*;
 import org.cbioportal.genome_nexus.annotation.domain.*;
+import org.cbioportal.genome_nexus.annotation.service.internal.AnnotationImporter;
+import org.cbioportal.genome_nexus.annotation.service.internal.AnnotationVersionPolicy;
+import org.cbioportal.genome_nexus.annotation.service.internal.FanOutExecutor;
 import org.cbioportal.genome_nexus.annotation.service.internal.HotspotAnnotationEnricher;
 import org.cbioportal.genome_nexus.annotation.service.internal.IsoformAnnotationEnricher;
 import org.cbioportal.genome_nexus.annotation.service.*;
 
 import org.cbioportal.genome_nexus.annotation.service.internal.VEPEnrichmentService;
+import org.cbioportal.genome_nexus.annotation.service.internal.VEPRateLimiter;
+import org.cbioportal.genome_nexus.annotation.service.internal.VariantAnnotationCache;
+import org.cbioportal.genome_nexus.annotation.service.internal.VariantAnnotationErrorCache;
+import org.cbioportal.genome_nexus.annotation.service.internal.VariantAnnotationFetcher;
+import org.cbioportal.genome_nexus.annotation.util.Hgvs;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Benjamin Gross
@@ -56,29 +75,69 @@ import java.util.List;
 @RestController // shorthand for @Controller, @ResponseBody
 @CrossOrigin(origins="*") // allow all cross-domain requests
 @RequestMapping(value = "/")
+@Profile("!" + AnnotationImporter.IMPORT_PROFILE) // no web server in the import mode
 public class AnnotationController
 {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    private final VariantAnnotationService variantAnnotationService;
+    public static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+
+    private final VariantAnnotationFetcher variantAnnotationFetcher;
     private final VariantAnnotationRepository variantAnnotationRepository;
     private final IsoformOverrideService isoformOverrideService;
     private final HotspotService hotspotService;
-    private final HotspotRepository hotspotRepository;
+    private final FanOutExecutor fanOutExecutor;
+    private final CounterService counterService;
+    private final ObjectMapper objectMapper;
+    private final VariantAnnotationCache variantAnnotationCache;
+    private final VariantAnnotationErrorCache variantAnnotationErrorCache;
+    private final AnnotationVersionPolicy annotationVersionPolicy;
+    private final TaskExecutor annotationRefreshExecutor;
+
+    // separate (lower) budget of the background refresh, on top of the process-wide VEP rate limit
+    private final VEPRateLimiter refreshRateLimiter;
+
+    // stale variants currently queued for (or being processed by) a background refresh
+    private final Set<String> refreshingAnnotations =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // max number of variants refreshed at a time, within the refresh rate budget
+    private Integer batchSize;
+    @Value("${vep.batch.size:200}")
+    public void setBatchSize(Integer batchSize) { this.batchSize = batchSize; }
+
+    // number of variants processed at a time when streaming annotations
+    private Integer streamWindowSize;
+    @Value("${vep.stream.window.size:500}")
+    public void setStreamWindowSize(Integer streamWindowSize) { this.streamWindowSize = streamWindowSize; }
 
     @Autowired
-    public AnnotationController(VariantAnnotationService variantAnnotationService,
+    public AnnotationController(VariantAnnotationFetcher variantAnnotationFetcher,
                                 VariantAnnotationRepository variantAnnotationRepository,
                                 IsoformOverrideService isoformOverrideService,
                                 HotspotService hotspotService,
-                                HotspotRepository hotspotRepository)
+                                FanOutExecutor fanOutExecutor,
+                                CounterService counterService,
+                                ObjectMapper objectMapper,
+                                VariantAnnotationCache variantAnnotationCache,
+                                VariantAnnotationErrorCache variantAnnotationErrorCache,
+                                AnnotationVersionPolicy annotationVersionPolicy,
+                                @Qualifier("annotationRefreshExecutor") TaskExecutor annotationRefreshExecutor,
+                                @Qualifier("annotationRefreshRateLimiter") VEPRateLimiter refreshRateLimiter)
     {
-        this.variantAnnotationService = variantAnnotationService;
+        this.variantAnnotationFetcher = variantAnnotationFetcher;
         this.variantAnnotationRepository = variantAnnotationRepository;
         this.isoformOverrideService = isoformOverrideService;
         this.hotspotService = hotspotService;
-        this.hotspotRepository = hotspotRepository;
+        this.fanOutExecutor = fanOutExecutor;
+        this.counterService = counterService;
+        this.objectMapper = objectMapper;
+        this.variantAnnotationCache = variantAnnotationCache;
+        this.variantAnnotationErrorCache = variantAnnotationErrorCache;
+        this.annotationVersionPolicy = annotationVersionPolicy;
+        this.annotationRefreshExecutor = annotationRefreshExecutor;
+        this.refreshRateLimiter = refreshRateLimiter;
     }
 
     @ApiOperation(value = "Retrieves VEP annotation for the provided list of variants",
@@ -92,69 +151,65 @@ public class AnnotationController
 	@RequestMapping(value = "/hgvs/{variants:.+}",
         method = RequestMethod.GET,
         produces = "application/json")
-	public List<VariantAnnotation> getVariantAnnotation(
+	public Callable<List<VariantAnnotation>> getVariantAnnotation(
         @PathVariable
         @ApiParam(value="Comma separated list of variants. For example X:g.66937331T>A,17:g.41242962->GA",
             required = true,
             allowMultiple = true)
-        List<String> variants,
+        final List<String> variants,
         @RequestParam(required = false)
         @ApiParam(value="Isoform override source. For example uniprot",
             required = false)
-        String isoformOverrideSource,
+        final String isoformOverrideSource,
         @RequestParam(required = false)
         @ApiParam(value="Indicates whether to include cancer hotspots information. " +
                         "Valid options are: summary, and full. " +
                         "Any other value will be ignored.",
             required = false)
-        String cancerHotspots)
+        final String cancerHotspots)
 	{
-		List<VariantAnnotation> variantAnnotations = new ArrayList<>();
-
-        // The post enrichment service enriches the annotation after saving
-        // the original annotation data to the repository. Any enrichment
-        // performed by the post enrichment service is not saved
-        // to the annotation repository.
-        EnrichmentService postEnrichmentService = new VEPEnrichmentService();
-
-        // only register the enricher if the service actually has data for the given source
-        if (isoformOverrideService.hasData(isoformOverrideSource))
-        {
-            AnnotationEnricher enricher = new IsoformAnnotationEnricher(
-                isoformOverrideSource, isoformOverrideService);
-
-            postEnrichmentService.registerEnricher(isoformOverrideSource, enricher);
-        }
-
-        // ignore any other value than "full" or "summary"
-        if (cancerHotspots != null &&
-            (cancerHotspots.equalsIgnoreCase("full") || cancerHotspots.equalsIgnoreCase("summary")))
-        {
-            AnnotationEnricher enricher = new HotspotAnnotationEnricher(
-                hotspotService, cancerHotspots.equalsIgnoreCase("full"));
-            postEnrichmentService.registerEnricher("cancerHotspots", enricher);
-        }
-
-		for (String variant: variants)
-		{
-            VariantAnnotation annotation = getVariantAnnotation(variant);
-
-            if (annotation != null)
+        // the annotation is processed by the async task executor,
+        // so that the container thread is released while waiting for the web service
+        return new Callable<List<VariantAnnotation>>() {
+            @Override
+            public List<VariantAnnotation> call()
             {
-                postEnrichmentService.enrichAnnotation(annotation);
-                variantAnnotations.add(annotation);
+                return getVariantAnnotations(variants, isoformOverrideSource, cancerHotspots);
             }
-		}
-
-		return variantAnnotations;
+        };
 	}
 
+    @ApiOperation(value = "Retrieves the full VEP annotation JSON for the provided variant",
+        nickname = "getRawVariantAnnotation")
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "Success",
+            response = String.class),
+        @ApiResponse(code = 404, message = "Variant cannot be annotated")
+    })
+    @RequestMapping(value = "/hgvs/{variant:.+}/raw",
+        method = RequestMethod.GET,
+        produces = "application/json")
+    public Callable<ResponseEntity<String>> getRawVariantAnnotation(
+        @PathVariable
+        @ApiParam(value="Variant. For example 7:g.140453136A>T",
+            required = true)
+        final String variant)
+    {
+        return new Callable<ResponseEntity<String>>() {
+            @Override
+            public ResponseEntity<String> call() throws IOException
+            {
+                return fetchRawVariantAnnotation(variant);
+            }
+        };
+    }
+
     @ApiOperation(value = "Retrieves VEP annotation for the provided list of variants",
         nickname = "postVariantAnnotation")
     @RequestMapping(value = "/hgvs",
         method = RequestMethod.POST,
         produces = "application/json")
-    public List<VariantAnnotation> postVariantAnnotation(
+    public Callable<List<VariantAnnotation>> postVariantAnnotation(
         @RequestParam
         @ApiParam(value="Comma separated list of variants. For example X:g.66937331T>A,17:g.41242962->GA",
             required = true,
@@ -174,39 +229,93 @@ public class AnnotationController
        return getVariantAnnotation(variants, isoformOverrideSource, cancerHotspots);
     }
 
+    @ApiOperation(value = "Retrieves VEP annotation for the provided list of variants " +
+                          "as a stream of JSON objects, one annotation per line",
+        nickname = "getVariantAnnotationStream")
+    @RequestMapping(value = "/hgvs/stream/{variants:.+}",
+        method = RequestMethod.GET,
+        produces = NDJSON_MEDIA_TYPE)
+    public StreamingResponseBody getVariantAnnotationStream(
+        @PathVariable
+        @ApiParam(value="Comma separated list of variants. For example X:g.66937331T>A,17:g.41242962->GA",
+            required = true,
+            allowMultiple = true)
+        List<String> variants,
+        @RequestParam(required = false)
+        @ApiParam(value="Isoform override source. For example uniprot",
+            required = false)
+        String isoformOverrideSource,
+        @RequestParam(required = false)
+        @ApiParam(value="Indicates whether to include cancer hotspots information. " +
+                        "Valid options are: summary, and full. " +
+                        "Any other value will be ignored.",
+            required = false)
+        String cancerHotspots)
+    {
+        final List<String> variantList = variants;
+        final EnrichmentService postEnrichmentService =
+            getPostEnrichmentService(isoformOverrideSource, cancerHotspots);
+
+        return new StreamingResponseBody() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException
+            {
+                writeVariantAnnotations(variantList, postEnrichmentService, outputStream);
+            }
+        };
+    }
+
+    @ApiOperation(value = "Retrieves VEP annotation for the provided list of variants " +
+                          "as a stream of JSON objects, one annotation per line",
+        nickname = "postVariantAnnotationStream")
+    @RequestMapping(value = "/hgvs/stream",
+        method = RequestMethod.POST,
+        produces = NDJSON_MEDIA_TYPE)
+    public StreamingResponseBody postVariantAnnotationStream(
+        @RequestParam
+        @ApiParam(value="Comma separated list of variants. For example X:g.66937331T>A,17:g.41242962->GA",
+            required = true,
+            allowMultiple = true)
+        List<String> variants,
+        @RequestParam(required = false)
+        @ApiParam(value="Isoform override source. For example uniprot",
+            required = false)
+        String isoformOverrideSource,
+        @RequestParam(required = false)
+        @ApiParam(value="Indicates whether to include cancer hotspots information. " +
+                        "Valid options are: summary, and full. " +
+                        "Any other value will be ignored.",
+            required = false)
+        String cancerHotspots)
+    {
+        return getVariantAnnotationStream(variants, isoformOverrideSource, cancerHotspots);
+    }
+
     @ApiOperation(value = "Retrieves hotspot annotation for the provided list of variants",
         nickname = "getHotspotAnnotation")
     @ApiResponses(value = {
         @ApiResponse(code = 200, message = "Success",
-            response = Hotspot.class,
+            response = HotspotMatch.class,
             responseContainer = "List"),
         @ApiResponse(code = 400, message = "Bad Request")
     })
     @RequestMapping(value = "/cancer_hotspots/{variants:.+}",
         method = RequestMethod.GET,
         produces = "application/json")
-    public List<Hotspot> getHotspotAnnotation(
+    public Callable<List<HotspotMatch>> getHotspotAnnotation(
         @PathVariable
         @ApiParam(value="Comma separated list of variants. For example 7:g.140453136A>T,12:g.25398285C>A",
             required = true,
             allowMultiple = true)
-        List<String> variants)
+        final List<String> variants)
     {
-        List<VariantAnnotation> variantAnnotations = getVariantAnnotation(variants, null, null);
-        List<Hotspot> hotspots = new ArrayList<>();
-
-        for (VariantAnnotation variantAnnotation : variantAnnotations)
-        {
-            if (variantAnnotation.getTranscriptConsequences() != null)
+        return new Callable<List<HotspotMatch>>() {
+            @Override
+            public List<HotspotMatch> call()
             {
-                for (TranscriptConsequence transcript : variantAnnotation.getTranscriptConsequences())
-                {
-                    hotspots.addAll(getHotspotAnnotation(transcript));
-                }
+                return getHotspotAnnotations(variants);
             }
-        }
-
-        return hotspots;
+        };
     }
 
     @ApiOperation(value = "Retrieves hotspot annotation for the provided list of variants",
@@ -214,7 +323,7 @@ public class AnnotationController
     @RequestMapping(value = "/cancer_hotspots",
         method = RequestMethod.POST,
         produces = "application/json")
-    public List<Hotspot> postHotspotAnnotation(
+    public Callable<List<HotspotMatch>> postHotspotAnnotation(
         @RequestParam
         @ApiParam(value="Comma separated list of variants. For example 7:g.140453136A>T,12:g.25398285C>A",
             required = true,
@@ -224,6 +333,30 @@ public class AnnotationController
         return getHotspotAnnotation(variants);
     }
 
+    @ApiOperation(value = "Retrieves hotspot annotation for the provided list of transcript ids " +
+                          "and protein positions, without annotating any variant",
+        nickname = "postHotspotAnnotationByProteinLocation")
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "Success",
+            response = HotspotMatch.class,
+            responseContainer = "List"),
+        @ApiResponse(code = 400, message = "Bad Request")
+    })
+    @RequestMapping(value = "/cancer_hotspots/protein_location",
+        method = RequestMethod.POST,
+        consumes = "application/json",
+        produces = "application/json")
+    public List<HotspotMatch> postHotspotAnnotationByProteinLocation(
+        @RequestBody
+        @ApiParam(value="List of transcript ids and protein positions. For example " +
+                        "[{\"transcriptId\":\"ENST00000288602\",\"proteinStart\":600,\"proteinEnd\":600}]",
+            required = true)
+        List<ProteinLocation> proteinLocations)
+    {
+        // answered from the in-memory hotspot cache: no web service call, no need for the async executor
+        return hotspotService.getHotspots(proteinLocations);
+    }
+
     @ApiOperation(value = "Gets the isoform override information for the specified source " +
                           "and the list of transcript ids",
         nickname = "getIsoformOverride")
@@ -336,62 +469,303 @@ public class AnnotationController
         return getIsoformOverrideSources();
     }
 
-    private IsoformOverride getIsoformOverride(String source, String transcriptId)
+    private List<VariantAnnotation> getVariantAnnotations(List<String> variants,
+                                                          String isoformOverrideSource,
+                                                          String cancerHotspots)
     {
-        return isoformOverrideService.getIsoformOverride(source, transcriptId);
+        EnrichmentService postEnrichmentService = getPostEnrichmentService(isoformOverrideSource, cancerHotspots);
+
+        return getVariantAnnotations(variants, postEnrichmentService);
     }
 
-    private List<Hotspot> getHotspotAnnotation(TranscriptConsequence transcript)
+    /**
+     * Returns the full annotation JSON as stored in the database (decompressed if needed).
+     * The variant is annotated first if it is not in the database yet.
+     */
+    private ResponseEntity<String> fetchRawVariantAnnotation(String variant) throws IOException
     {
-        //String transcriptId = transcript.getTranscriptId();
-        //Hotspot hotspot = hotspotRepository.findOne(transcriptId);
+        String key = Hgvs.normalize(variant);
+        String annotationJSON = variantAnnotationRepository.findAnnotationJson(key);
+
+        if (annotationJSON == null)
+        {
+            // same path as the other endpoints: saves the annotation, or returns the error
+            List<VariantAnnotation> annotations =
+                getVariantAnnotations(Collections.singletonList(key), new VEPEnrichmentService());
+
+            annotationJSON = variantAnnotationRepository.findAnnotationJson(key);
+
+            if (annotationJSON == null)
+            {
+                String message = annotations.size() > 0 ? annotations.get(0).getAnnotationJSON() : null;
+                return new ResponseEntity<>(message, HttpStatus.NOT_FOUND);
+            }
+        }
+
+        return new ResponseEntity<>(annotationJSON, HttpStatus.OK);
+    }
 
-        // get the hotspot(s) from the web service
-        List<Hotspot> hotspots = hotspotService.getHotspots(transcript);
+    private List<HotspotMatch> getHotspotAnnotations(List<String> variants)
+    {
+        List<VariantAnnotation> variantAnnotations = getVariantAnnotations(variants, null, null);
+        List<HotspotMatch> hotspots = new ArrayList<>();
 
-        // do not cache anything for now
-        //hotspotRepository.save(hotspots);
+        for (VariantAnnotation variantAnnotation : variantAnnotations)
+        {
+            if (variantAnnotation.getTranscriptConsequences() != null)
+            {
+                for (TranscriptConsequence transcript : variantAnnotation.getTranscriptConsequences())
+                {
+                    hotspots.addAll(getHotspotAnnotation(transcript));
+                }
+            }
+        }
 
         return hotspots;
     }
 
-    private VariantAnnotation getVariantAnnotation(String variant)
+    private EnrichmentService getPostEnrichmentService(String isoformOverrideSource, String cancerHotspots)
     {
-        VariantAnnotation variantAnnotation = variantAnnotationRepository.findOne(variant);
-        String annotationJSON = null;
+        // The post enrichment service enriches the annotation after saving
+        // the original annotation data to the repository. Any enrichment
+        // performed by the post enrichment service is not saved
+        // to the annotation repository.
+        EnrichmentService postEnrichmentService = new VEPEnrichmentService();
 
-        if (variantAnnotation == null) {
+        // only register the enricher if the service actually has data for the given source
+        if (isoformOverrideService.hasData(isoformOverrideSource))
+        {
+            AnnotationEnricher enricher = new IsoformAnnotationEnricher(
+                isoformOverrideSource, isoformOverrideService);
 
-            try {
-                // get the annotation from the web service and save it to the DB
-                //variantAnnotation = variantAnnotationService.getAnnotation(variant);
-                //variantAnnotationRepository.save(variantAnnotation);
+            postEnrichmentService.registerEnricher(isoformOverrideSource, enricher);
+        }
 
-                // get the raw annotation string from the web service
-                annotationJSON = variantAnnotationService.getRawAnnotation(variant);
+        // ignore any other value than "full" or "summary"
+        if (cancerHotspots != null &&
+            (cancerHotspots.equalsIgnoreCase("full") || cancerHotspots.equalsIgnoreCase("summary")))
+        {
+            AnnotationEnricher enricher = new HotspotAnnotationEnricher(
+                hotspotService, cancerHotspots.equalsIgnoreCase("full"));
+            postEnrichmentService.registerEnricher("cancerHotspots", enricher);
+        }
 
-                // construct a VariantAnnotation instance to return:
-                // this does not contain all the information obtained from the web service
-                // only the fields mapped to the VariantAnnotation model will be returned
-                variantAnnotation = variantAnnotationRepository.mapAnnotationJson(variant, annotationJSON);
+        return postEnrichmentService;
+    }
 
-                // save everything to the cache as a properly parsed JSON
-                variantAnnotationRepository.saveAnnotationJson(variant, annotationJSON);
+    /**
+     * Writes the annotations for the given variants to the output stream as they become ready,
+     * one JSON object per line. Variants are processed in fixed size windows,
+     * so the memory usage does not depend on the total number of variants.
+     */
+    private void writeVariantAnnotations(List<String> variants,
+                                         EnrichmentService postEnrichmentService,
+                                         OutputStream outputStream) throws IOException
+    {
+        for (int start = 0; start < variants.size(); start += streamWindowSize)
+        {
+            List<String> window = variants.subList(start, Math.min(start + streamWindowSize, variants.size()));
+
+            for (VariantAnnotation annotation: getVariantAnnotations(window, postEnrichmentService))
+            {
+                outputStream.write(objectMapper.writeValueAsBytes(annotation));
+                outputStream.write('\n');
             }
-            catch (HttpClientErrorException e) {
-                // in case of web service error, do not terminate the whole process.
-                // just copy the response body (error message) for this variant
-                variantAnnotation = new VariantAnnotation(variant, e.getResponseBodyAsString());
-                logger.error("getVariantAnnotation(" + variant + ") -- " + e.toString());
+
+            // send the annotations of the current window to the client right away
+            outputStream.flush();
+        }
+    }
+
+    private List<VariantAnnotation> getVariantAnnotations(List<String> variants,
+                                                          EnrichmentService postEnrichmentService)
+    {
+        List<VariantAnnotation> variantAnnotations = new ArrayList<>();
+
+        // different spellings of the same variant are mapped onto the same normalized key,
+        // the cache lookups and the web service requests only use the normalized keys
+        Map<String, String> normalizedKeys = new HashMap<>();
+
+        for (String variant: variants)
+        {
+            normalizedKeys.put(variant, Hgvs.normalize(variant));
+        }
+
+        List<String> keys = new ArrayList<>(new LinkedHashSet<>(normalizedKeys.values()));
+
+        // first pass: get all annotations already in the memory cache or in the database,
+        // and collect the cache misses
+        Map<String, VariantAnnotation> annotations = variantAnnotationCache.getAll(keys);
+        Set<String> misses = new LinkedHashSet<>();
+
+        for (String key: keys)
+        {
+            if (!annotations.containsKey(key))
+            {
+                misses.add(key);
             }
-            catch (IOException e) {
-                // in case of parse error, do not terminate the whole process.
-                // just send the raw annotationJSON to the client
-                variantAnnotation = new VariantAnnotation(variant, annotationJSON);
-                logger.error("getVariantAnnotation(" + variant + ") -- " + e.toString());
+        }
+
+        for (VariantAnnotation annotation: variantAnnotationRepository.findAnnotations(misses).values())
+        {
+            // keep the original instance in the memory cache, enrich a copy
+            variantAnnotationCache.put(annotation);
+            annotations.put(annotation.getVariant(), annotation.copy());
+            misses.remove(annotation.getVariant());
+        }
+
+        // old annotations are still served while being refreshed in the background,
+        // only the expired ones are fetched again right away
+        List<String> staleKeys = new ArrayList<>();
+
+        for (String key: keys)
+        {
+            VariantAnnotation annotation = annotations.get(key);
+
+            if (annotation == null)
+            {
+                continue;
+            }
+
+            switch (annotationVersionPolicy.getFreshness(annotation))
+            {
+                case EXPIRED:
+                    annotations.remove(key);
+                    misses.add(key);
+                    counterService.increment("annotation.expired");
+                    break;
+                case STALE:
+                    staleKeys.add(key);
+                    counterService.increment("annotation.stale");
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        refreshVariantAnnotations(staleKeys);
+
+        // do not request the variants which recently failed again, return the stored error instead
+        for (VariantAnnotation annotation: variantAnnotationErrorCache.getAll(misses).values())
+        {
+            annotations.put(annotation.getVariant(), annotation);
+            misses.remove(annotation.getVariant());
+        }
+
+        for (String variant: variants)
+        {
+            String key = normalizedKeys.get(variant);
+
+            // a different spelling of a variant which is already known
+            if (!key.equals(variant) && annotations.containsKey(key))
+            {
+                counterService.increment("annotation.normalized.hits");
+            }
+        }
+
+        // get all cache misses from the web service at once
+        annotations.putAll(variantAnnotationFetcher.getVariantAnnotations(misses));
+
+        // second pass: echo the original variant keys in the original order,
+        // the same annotation is copied if it is requested more than once
+        Set<String> usedKeys = new HashSet<>();
+
+        for (String variant: variants)
+        {
+            String key = normalizedKeys.get(variant);
+            VariantAnnotation annotation = annotations.get(key);
+
+            if (annotation != null)
+            {
+                if (!usedKeys.add(key))
+                {
+                    annotation = annotation.copy();
+                }
+
+                annotation.setVariant(variant);
+                variantAnnotations.add(annotation);
             }
         }
 
-        return variantAnnotation;
+        // enrich each annotation separately
+        for (VariantAnnotation annotation: variantAnnotations)
+        {
+            postEnrichmentService.enrichAnnotation(annotation);
+        }
+
+        return variantAnnotations;
+    }
+
+    private IsoformOverride getIsoformOverride(String source, String transcriptId)
+    {
+        return isoformOverrideService.getIsoformOverride(source, transcriptId);
+    }
+
+    private List<HotspotMatch> getHotspotAnnotation(TranscriptConsequence transcript)
+    {
+        // get the hotspot(s) from the cache
+        return hotspotService.getHotspots(transcript);
+    }
+
+    /**
+     * Queues a background refresh for the given variants, unless already queued.
+     * The refresh does not block the caller, and the refreshed annotations replace
+     * the old ones both in the database and in the memory cache.
+     * The refresh is limited to annotation.refresh.rate_limit.per_second batches.
+     */
+    private void refreshVariantAnnotations(Collection<String> variants)
+    {
+        final List<String> variantsToRefresh = new ArrayList<>();
+
+        for (String variant: variants)
+        {
+            if (refreshingAnnotations.add(variant))
+            {
+                variantsToRefresh.add(variant);
+            }
+        }
+
+        if (variantsToRefresh.size() == 0)
+        {
+            return;
+        }
+
+        try {
+            annotationRefreshExecutor.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        // do not request the variants which recently failed again
+                        List<String> variants = new ArrayList<>(variantsToRefresh);
+                        variants.removeAll(variantAnnotationErrorCache.getAll(variantsToRefresh).keySet());
+
+                        // the refresh never takes more than its own budget of the web service requests,
+                        // so that a large number of stale annotations does not delay the cache misses
+                        for (List<String> chunk: fanOutExecutor.partition(variants, batchSize))
+                        {
+                            refreshRateLimiter.acquire();
+                            variantAnnotationFetcher.getVariantAnnotations(chunk);
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    catch (RuntimeException e) {
+                        logger.error("refreshVariantAnnotations -- " + e.toString());
+                    }
+                    finally {
+                        refreshingAnnotations.removeAll(variantsToRefresh);
+                    }
+                }
+            });
+
+            counterService.increment("annotation.refresh.queued");
+        }
+        catch (TaskRejectedException e) {
+            // the queue is full, try again with a later request
+            refreshingAnnotations.removeAll(variantsToRefresh);
+            counterService.increment("annotation.refresh.rejected");
+        }
     }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genome_nexus.annotation.web;
+
+import org.cbioportal.genome_nexus.annotation.service.internal.VEPRateLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Configures the executor for the asynchronous (Callable, StreamingResponseBody) endpoints.
+ *
+ * Annotation requests may wait on the web services for a long time, so they are processed
+ * by a dedicated executor instead of the container threads. This way the container threads
+ * remain available for the cheap requests, such as the isoform overrides.
+ */
+@Configuration
+public class AsyncConfig extends WebMvcConfigurerAdapter
+{
+    private Integer poolSize;
+    @Value("${annotation.async.pool.size:32}")
+    public void setPoolSize(Integer poolSize) { this.poolSize = poolSize; }
+
+    private Integer queueCapacity;
+    @Value("${annotation.async.queue.capacity:1000}")
+    public void setQueueCapacity(Integer queueCapacity) { this.queueCapacity = queueCapacity; }
+
+    private Integer refreshPoolSize;
+    @Value("${annotation.refresh.pool.size:2}")
+    public void setRefreshPoolSize(Integer refreshPoolSize) { this.refreshPoolSize = refreshPoolSize; }
+
+    private Integer refreshQueueCapacity;
+    @Value("${annotation.refresh.queue.capacity:1000}")
+    public void setRefreshQueueCapacity(Integer refreshQueueCapacity) { this.refreshQueueCapacity = refreshQueueCapacity; }
+
+    private Double refreshRate;
+    @Value("${annotation.refresh.rate_limit.per_second:1}")
+    public void setRefreshRate(Double refreshRate) { this.refreshRate = refreshRate; }
+
+    private Long timeout;
+    @Value("${annotation.async.timeout:600000}")
+    public void setTimeout(Long timeout) { this.timeout = timeout; }
+
+    @Bean
+    public ThreadPoolTaskExecutor annotationTaskExecutor()
+    {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("annotation-");
+
+        return executor;
+    }
+
+    /**
+     * Refreshes the stale cached annotations in the background, without blocking any request.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor annotationRefreshExecutor()
+    {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+        executor.setCorePoolSize(refreshPoolSize);
+        executor.setMaxPoolSize(refreshPoolSize);
+        executor.setQueueCapacity(refreshQueueCapacity);
+        executor.setThreadNamePrefix("annotation-refresh-");
+
+        return executor;
+    }
+
+    /**
+     * Rate budget of the background refresh, separate from the budget of the requests
+     * (vep.rate_limit). Published as the annotation.refresh.rate_limit.* metrics.
+     */
+    @Bean
+    public VEPRateLimiter annotationRefreshRateLimiter()
+    {
+        return new VEPRateLimiter(refreshRate, 1, "annotation.refresh.rate_limit");
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer)
+    {
+        configurer.setTaskExecutor(annotationTaskExecutor());
+        configurer.setDefaultTimeout(timeout);
+    }
+}
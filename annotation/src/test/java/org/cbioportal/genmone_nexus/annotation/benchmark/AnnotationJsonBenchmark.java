@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genmone_nexus.annotation.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotation;
+import org.cbioportal.genome_nexus.annotation.domain.internal.VariantAnnotationRepositoryImpl;
+import org.cbioportal.genome_nexus.annotation.util.Transformer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the former multi-pass handling of a VEP annotation payload
+ * (JSON.parse, serialize, map, parse again to save) with the single-pass handling
+ * (parse once into a tree, map and build the document from the same tree).
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=org.cbioportal.genmone_nexus.annotation.benchmark.AnnotationJsonBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class AnnotationJsonBenchmark
+{
+    private static final String VARIANT = "7:g.140453136A>T";
+
+    private String annotationJSON;
+    private VariantAnnotationRepositoryImpl repository;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        InputStream in = this.getClass().getResourceAsStream("/vep_annotation.json");
+        annotationJSON = new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+        in.close();
+
+        // parsing and mapping does not require a database connection
+        repository = new VariantAnnotationRepositoryImpl();
+    }
+
+    @Benchmark
+    public void multiPass(Blackhole blackhole) throws IOException
+    {
+        // map: parse, serialize back to a string, parse again with a new mapper
+        String toMap = JSON.serialize(firstElement(JSON.parse(annotationJSON)));
+        VariantAnnotation annotation = new ObjectMapper().readValue(toMap, VariantAnnotation.class);
+        annotation.setVariant(VARIANT);
+
+        // save: parse the original string once more
+        DBObject dbObject = firstElement(JSON.parse(annotationJSON));
+        dbObject.put("_id", VARIANT);
+
+        blackhole.consume(annotation);
+        blackhole.consume(dbObject);
+    }
+
+    @Benchmark
+    public void singlePass(Blackhole blackhole) throws IOException
+    {
+        JsonNode annotationNode = repository.parseAnnotationJson(annotationJSON);
+        VariantAnnotation annotation = repository.mapAnnotationJson(VARIANT, annotationNode);
+
+        DBObject dbObject = Transformer.convertToDbObject(annotationNode);
+        dbObject.put("_id", VARIANT);
+
+        blackhole.consume(annotation);
+        blackhole.consume(dbObject);
+    }
+
+    private static DBObject firstElement(Object parsed)
+    {
+        if (parsed instanceof List)
+        {
+            return (DBObject) ((List) parsed).get(0);
+        }
+
+        return (DBObject) parsed;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include(AnnotationJsonBenchmark.class.getSimpleName())
+            .build();
+
+        new Runner(options).run();
+    }
+}
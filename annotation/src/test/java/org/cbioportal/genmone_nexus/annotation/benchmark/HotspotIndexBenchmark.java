@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genmone_nexus.annotation.benchmark;
+
+import org.cbioportal.genome_nexus.annotation.domain.Hotspot;
+import org.cbioportal.genome_nexus.annotation.service.internal.HotspotCache;
+import org.cbioportal.genome_nexus.annotation.util.Numerical;
+import org.cbioportal.genome_nexus.annotation.util.Transformer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the former hotspot lookup (linear scan of the transcript hotspots, parsing
+ * the residue with Numerical.overlaps for each of them) with the position index of
+ * HotspotCache, for a fixed set of protein positions (about half of them overlapping a hotspot).
+ *
+ * The input is a synthetic payload (hotspots_synthetic.json) with the shape of the Cancer Hotspots API
+ * response but generated transcript ids and residues. Only the relative difference between the two
+ * approaches is meaningful, not the absolute numbers.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=org.cbioportal.genmone_nexus.annotation.benchmark.HotspotIndexBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HotspotIndexBenchmark
+{
+    private static final int QUERY_COUNT = 10000;
+
+    private HotspotCache cache;
+    private String[] transcriptIds;
+    private String[] proteinStarts;
+    private String[] proteinEnds;
+    private List<Hotspot> results;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        InputStream in = this.getClass().getResourceAsStream("/hotspots_synthetic.json");
+        String hotspotsJSON = new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+        in.close();
+
+        List<Hotspot> hotspots = Transformer.mapJsonToInstance(hotspotsJSON, Hotspot.class);
+        Random random = new Random(42);
+
+        cache = new HotspotCache(hotspots);
+        transcriptIds = new String[QUERY_COUNT];
+        proteinStarts = new String[QUERY_COUNT];
+        proteinEnds = new String[QUERY_COUNT];
+        results = new ArrayList<>();
+
+        for (int i = 0; i < QUERY_COUNT; i++)
+        {
+            Hotspot hotspot = hotspots.get(random.nextInt(hotspots.size()));
+            int[] range = Numerical.extractRange(hotspot.getResidue());
+            int start = range == null ? 1 : range[0];
+
+            // either on the hotspot residue, or somewhere nearby
+            if (random.nextBoolean())
+            {
+                start += 10 + random.nextInt(100);
+            }
+
+            transcriptIds[i] = hotspot.getTranscriptId();
+            proteinStarts[i] = Integer.toString(start);
+            proteinEnds[i] = Integer.toString(start + random.nextInt(3));
+        }
+    }
+
+    @Benchmark
+    public int scan()
+    {
+        int count = 0;
+
+        for (int i = 0; i < QUERY_COUNT; i++)
+        {
+            for (Hotspot hotspot : cache.findByTranscriptId(transcriptIds[i]))
+            {
+                if (Numerical.overlaps(hotspot.getResidue(), proteinStarts[i], proteinEnds[i]))
+                {
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    @Benchmark
+    public int index()
+    {
+        int count = 0;
+
+        for (int i = 0; i < QUERY_COUNT; i++)
+        {
+            results.clear();
+            count += cache.findOverlapping(transcriptIds[i],
+                Numerical.parsePositiveInteger(proteinStarts[i]),
+                Numerical.parsePositiveInteger(proteinEnds[i]),
+                results);
+        }
+
+        return count;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include(HotspotIndexBenchmark.class.getSimpleName())
+            .build();
+
+        new Runner(options).run();
+    }
+}
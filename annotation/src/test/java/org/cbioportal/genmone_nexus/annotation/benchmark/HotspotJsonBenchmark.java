@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genmone_nexus.annotation.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.util.JSON;
+import org.cbioportal.genome_nexus.annotation.domain.Hotspot;
+import org.cbioportal.genome_nexus.annotation.util.Transformer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the former per element mapping of the Cancer Hotspots payload
+ * (JSON.parse, then serialize and map each element with a new ObjectMapper)
+ * with mapping the whole array in one call with a shared ObjectReader.
+ *
+ * The input is a synthetic payload (hotspots_synthetic.json) with the shape of the Cancer Hotspots API
+ * response but generated transcript ids and residues. Only the relative difference between the two
+ * approaches is meaningful, not the absolute numbers.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=org.cbioportal.genmone_nexus.annotation.benchmark.HotspotJsonBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HotspotJsonBenchmark
+{
+    private String hotspotsJSON;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        InputStream in = this.getClass().getResourceAsStream("/hotspots_synthetic.json");
+        hotspotsJSON = new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+        in.close();
+    }
+
+    @Benchmark
+    public List<Hotspot> perElement() throws IOException
+    {
+        List<Hotspot> hotspots = new ArrayList<>();
+
+        for (Object dbObject: (List) JSON.parse(hotspotsJSON))
+        {
+            String toMap = JSON.serialize(dbObject);
+            ObjectMapper mapper = new ObjectMapper();
+
+            hotspots.add(mapper.readValue(toMap, Hotspot.class));
+        }
+
+        return hotspots;
+    }
+
+    @Benchmark
+    public List<Hotspot> sharedReader() throws IOException
+    {
+        return Transformer.mapJsonToInstance(hotspotsJSON, Hotspot.class);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include(HotspotJsonBenchmark.class.getSimpleName())
+            .build();
+
+        new Runner(options).run();
+    }
+}
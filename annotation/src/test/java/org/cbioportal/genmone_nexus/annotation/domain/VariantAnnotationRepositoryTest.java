@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genmone_nexus.annotation.domain;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkUpdateRequestBuilder;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteRequestBuilder;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import org.bson.types.Binary;
+import org.cbioportal.genome_nexus.annotation.domain.TranscriptConsequence;
+import org.cbioportal.genome_nexus.annotation.domain.VariantAnnotation;
+import org.cbioportal.genome_nexus.annotation.domain.internal.VariantAnnotationRepositoryImpl;
+import org.cbioportal.genome_nexus.annotation.util.Compression;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.data.mongodb.MongoDbFactory;
+import org.springframework.data.mongodb.core.DocumentCallbackHandler;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.DefaultDbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Round trip tests for VariantAnnotationRepositoryImpl: annotations are saved
+ * and read back through the repository, against an in-memory collection.
+ */
+public class VariantAnnotationRepositoryTest
+{
+    private static final String VARIANT = "7:g.140453136A>T";
+
+    private String annotationJSON;
+    private MappingMongoConverter converter;
+
+    // documents written by the last bulk write, in insertion order
+    private List<DBObject> documents;
+    // bulk write of the last repository
+    private BulkWriteOperation bulkWrite;
+
+    @Before
+    public void setup() throws Exception
+    {
+        InputStream in = this.getClass().getResourceAsStream("/vep_annotation.json");
+        annotationJSON = new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+        in.close();
+
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.afterPropertiesSet();
+
+        converter = new MappingMongoConverter(new DefaultDbRefResolver(mock(MongoDbFactory.class)), mappingContext);
+        converter.afterPropertiesSet();
+
+        documents = new ArrayList<>();
+    }
+
+    @Test
+    public void roundTrip() throws IOException
+    {
+        VariantAnnotation expected = repository(null).mapAnnotationJson(VARIANT, annotationJSON);
+
+        for (String codec: Arrays.asList("none", "deflate", "lz4"))
+        {
+            VariantAnnotationRepositoryImpl repository = repository(codec);
+            documents.clear();
+
+            repository.saveAnnotationJson(VARIANT, annotationJSON);
+            assertEquals(codec, 1, documents.size());
+
+            VariantAnnotation annotation = repository.findAnnotations(Collections.singletonList(VARIANT)).get(VARIANT);
+
+            assertNotNull(codec, annotation);
+            assertEquals(codec, VARIANT, annotation.getVariant());
+            assertEquals(codec, expected.getVariantId(), annotation.getVariantId());
+            assertEquals(codec, expected.getAssemblyName(), annotation.getAssemblyName());
+            assertEquals(codec, expected.getSeqRegionName(), annotation.getSeqRegionName());
+            assertEquals(codec, expected.getStart(), annotation.getStart());
+            assertEquals(codec, expected.getEnd(), annotation.getEnd());
+            assertEquals(codec, expected.getAlleleString(), annotation.getAlleleString());
+            assertEquals(codec, expected.getMostSevereConsequence(), annotation.getMostSevereConsequence());
+            assertEquals(codec, expected.getTranscriptConsequences().size(), annotation.getTranscriptConsequences().size());
+
+            for (int i = 0; i < expected.getTranscriptConsequences().size(); i++)
+            {
+                TranscriptConsequence expectedTranscript = expected.getTranscriptConsequences().get(i);
+                TranscriptConsequence transcript = annotation.getTranscriptConsequences().get(i);
+
+                assertEquals(codec, expectedTranscript.getTranscriptId(), transcript.getTranscriptId());
+                assertEquals(codec, expectedTranscript.getHgvsp(), transcript.getHgvsp());
+                assertEquals(codec, expectedTranscript.getHgvsc(), transcript.getHgvsc());
+            }
+        }
+    }
+
+    @Test
+    public void compressedDocumentKeepsFullAnnotation() throws IOException
+    {
+        JsonNode annotationNode = repository(null).parseAnnotationJson(annotationJSON);
+
+        for (Compression codec: Compression.values())
+        {
+            documents.clear();
+            repository(codec.name()).saveAnnotationJson(Collections.singletonMap(VARIANT, annotationJSON));
+
+            DBObject dbObject = documents.get(0);
+
+            // fields not mapped to the model are only in the compressed payload
+            assertFalse(codec.name(), dbObject.containsField("input"));
+            assertEquals(codec.name(), codec.name(), dbObject.get(VariantAnnotationRepositoryImpl.CODEC_FIELD));
+
+            byte[] payload = ((Binary) dbObject.get(VariantAnnotationRepositoryImpl.PAYLOAD_FIELD)).getData();
+            assertEquals(codec.name(), annotationNode, new ObjectMapper().readTree(codec.decompress(payload)));
+        }
+    }
+
+    @Test
+    public void uncompressedDocumentKeepsFullAnnotation()
+    {
+        repository("none").saveAnnotationJson(VARIANT, annotationJSON);
+
+        DBObject dbObject = documents.get(0);
+
+        assertTrue(dbObject.containsField("input"));
+        assertFalse(dbObject.containsField(VariantAnnotationRepositoryImpl.PAYLOAD_FIELD));
+    }
+
+    @Test
+    public void rawJsonRoundTrip() throws IOException
+    {
+        JsonNode annotationNode = repository(null).parseAnnotationJson(annotationJSON);
+
+        for (Compression codec: Compression.values())
+        {
+            documents.clear();
+            VariantAnnotationRepositoryImpl repository = repository(codec.name());
+
+            assertNull(codec.name(), repository.findAnnotationJson(VARIANT));
+
+            repository.saveAnnotationJson(VARIANT, annotationJSON);
+
+            // decompressed on request, same as the original response
+            assertEquals(codec.name(), annotationNode, new ObjectMapper().readTree(repository.findAnnotationJson(VARIANT)));
+        }
+
+        // not compressed: the document itself without the internal fields
+        documents.clear();
+        VariantAnnotationRepositoryImpl repository = repository("none");
+        repository.saveAnnotationJson(VARIANT, annotationJSON);
+        JsonNode rawNode = new ObjectMapper().readTree(repository.findAnnotationJson(VARIANT));
+
+        assertEquals(annotationNode.get("id"), rawNode.get("id"));
+        assertEquals(annotationNode.get("input"), rawNode.get("input"));
+        assertEquals(annotationNode.get("transcript_consequences").size(), rawNode.get("transcript_consequences").size());
+        assertFalse(rawNode.has("_id"));
+        assertFalse(rawNode.has(VariantAnnotationRepositoryImpl.VARIANT_FIELD));
+    }
+
+    @Test
+    public void databaseError() throws IOException
+    {
+        VariantAnnotationRepositoryImpl repository = repository("none");
+        Map<String, JsonNode> annotationNodes = new LinkedHashMap<>();
+
+        annotationNodes.put(VARIANT, repository.parseAnnotationJson(annotationJSON));
+        annotationNodes.put("7:g.140453137A>T", repository.parseAnnotationJson(annotationJSON));
+        when(bulkWrite.execute()).thenThrow(new MongoException("timeout"));
+
+        // reported for every annotation of the bulk write, never thrown
+        Map<String, String> failures = repository.saveAnnotations(annotationNodes, null);
+
+        assertEquals(annotationNodes.keySet(), failures.keySet());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void invalidAnnotationJson()
+    {
+        repository("deflate").saveAnnotationJson(VARIANT, "not a JSON");
+    }
+
+    private VariantAnnotationRepositoryImpl repository(String codec)
+    {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        DBCollection collection = mock(DBCollection.class);
+        bulkWrite = mock(BulkWriteOperation.class);
+        BulkWriteRequestBuilder request = mock(BulkWriteRequestBuilder.class);
+        BulkUpdateRequestBuilder upsert = mock(BulkUpdateRequestBuilder.class);
+
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        when(mongoTemplate.getCollection(anyString())).thenReturn(collection);
+        when(collection.initializeUnorderedBulkOperation()).thenReturn(bulkWrite);
+        when(bulkWrite.find(any(DBObject.class))).thenReturn(request);
+        when(request.upsert()).thenReturn(upsert);
+
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                documents.add((DBObject) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(upsert).replaceOne(any(DBObject.class));
+
+        when(collection.findOne(any(DBObject.class))).thenAnswer(new Answer<DBObject>() {
+            @Override
+            public DBObject answer(InvocationOnMock invocation)
+            {
+                // single variant in the test collection
+                return documents.size() == 0 ? null : new BasicDBObject(documents.get(0).toMap());
+            }
+        });
+
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                DocumentCallbackHandler handler = (DocumentCallbackHandler) invocation.getArguments()[2];
+
+                for (DBObject document: documents)
+                {
+                    // same projection as the lookup query
+                    DBObject dbObject = new BasicDBObject(document.toMap());
+                    dbObject.removeField(VariantAnnotationRepositoryImpl.PAYLOAD_FIELD);
+                    handler.processDocument(dbObject);
+                }
+
+                return null;
+            }
+        }).when(mongoTemplate).executeQuery(any(Query.class), anyString(), any(DocumentCallbackHandler.class));
+
+        VariantAnnotationRepositoryImpl repository = new VariantAnnotationRepositoryImpl();
+        ReflectionTestUtils.setField(repository, "mongoTemplate", mongoTemplate);
+        repository.setLookupBatchSize(1000);
+        // packed ids are read back through the document callback
+        repository.setPackedId(true);
+        repository.setStorageCodec(codec);
+
+        return repository;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genmone_nexus.annotation.service.internal;
+
+import org.cbioportal.genome_nexus.annotation.domain.Hotspot;
+import org.cbioportal.genome_nexus.annotation.service.internal.HotspotCache;
+import org.cbioportal.genome_nexus.annotation.util.Numerical;
+import org.cbioportal.genome_nexus.annotation.util.Transformer;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the indexed hotspot lookup with a brute-force Numerical.overlaps filter
+ * over all hotspots of a synthetic fixture (generated transcript ids and residues, with single
+ * residue and range hotspots, in the shape of the Cancer Hotspots API response).
+ */
+public class HotspotCacheTest
+{
+    private static List<Hotspot> hotspots;
+    private static HotspotCache cache;
+
+    @BeforeClass
+    public static void setup() throws IOException
+    {
+        InputStream in = HotspotCacheTest.class.getResourceAsStream("/hotspots_synthetic.json");
+        String hotspotsJSON = new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+        in.close();
+
+        hotspots = Transformer.mapJsonToInstance(hotspotsJSON, Hotspot.class);
+        cache = new HotspotCache(hotspots);
+    }
+
+    @Test
+    public void boundaries()
+    {
+        for (Hotspot hotspot: hotspots)
+        {
+            int[] range = Numerical.extractRange(hotspot.getResidue());
+
+            if (range == null)
+            {
+                continue;
+            }
+
+            int start = range[0];
+            int end = range[1];
+            String transcriptId = hotspot.getTranscriptId();
+
+            // single residue at each end of the hotspot
+            assertTrue(hotspot.getResidue(), findOverlapping(transcriptId, start, start).contains(hotspot));
+            assertTrue(hotspot.getResidue(), findOverlapping(transcriptId, end, end).contains(hotspot));
+
+            // adjacent single residues and ranges, right before and right after the hotspot
+            assertFalse(hotspot.getResidue(), findOverlapping(transcriptId, start - 1, start - 1).contains(hotspot));
+            assertFalse(hotspot.getResidue(), findOverlapping(transcriptId, end + 1, end + 1).contains(hotspot));
+            assertFalse(hotspot.getResidue(), findOverlapping(transcriptId, Math.max(0, start - 5), start - 1).contains(hotspot));
+            assertFalse(hotspot.getResidue(), findOverlapping(transcriptId, end + 1, end + 5).contains(hotspot));
+
+            // ranges enclosing the hotspot, or partially overlapping it
+            assertTrue(hotspot.getResidue(), findOverlapping(transcriptId, start - 1, end + 1).contains(hotspot));
+            assertTrue(hotspot.getResidue(), findOverlapping(transcriptId, 0, Integer.MAX_VALUE).contains(hotspot));
+            assertTrue(hotspot.getResidue(), findOverlapping(transcriptId, start - 1, start).contains(hotspot));
+            assertTrue(hotspot.getResidue(), findOverlapping(transcriptId, end, end + 1).contains(hotspot));
+
+            int[][] queries = {
+                {start, start}, {end, end},
+                {start - 1, start - 1}, {end + 1, end + 1},
+                {Math.max(0, start - 5), start - 1}, {end + 1, end + 5},
+                {start - 1, end + 1}, {start - 1, start}, {end, end + 1}
+            };
+
+            for (int[] query: queries)
+            {
+                assertSameHotspots(transcriptId, query[0], query[1]);
+            }
+        }
+    }
+
+    @Test
+    public void randomQueries()
+    {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10000; i++)
+        {
+            Hotspot hotspot = hotspots.get(random.nextInt(hotspots.size()));
+            int[] range = Numerical.extractRange(hotspot.getResidue());
+            int start = Math.max(0, (range == null ? 1 : range[0]) + random.nextInt(41) - 20);
+            int end = start + random.nextInt(10);
+
+            assertSameHotspots(hotspot.getTranscriptId(), start, end);
+        }
+    }
+
+    @Test
+    public void transcriptId()
+    {
+        Hotspot hotspot = hotspots.get(0);
+        int[] range = Numerical.extractRange(hotspot.getResidue());
+
+        // transcript ids are case insensitive
+        assertTrue(findOverlapping(hotspot.getTranscriptId().toLowerCase(), range[0], range[1]).contains(hotspot));
+
+        assertEquals(0, cache.findOverlapping("ENST_UNKNOWN", 0, Integer.MAX_VALUE, null));
+        assertEquals(0, cache.findOverlapping(null, 0, Integer.MAX_VALUE, null));
+        assertFalse(cache.overlaps("ENST_UNKNOWN", 0, Integer.MAX_VALUE));
+    }
+
+    private void assertSameHotspots(String transcriptId, int start, int end)
+    {
+        List<Hotspot> expected = bruteForce(transcriptId, start, end);
+        List<Hotspot> actual = findOverlapping(transcriptId, start, end);
+        String query = transcriptId + ":" + start + "-" + end;
+
+        assertEquals(query, expected.size(), actual.size());
+        assertEquals(query, new HashSet<>(expected), new HashSet<>(actual));
+        assertEquals(query, expected.size() > 0, cache.overlaps(transcriptId, start, end));
+    }
+
+    private List<Hotspot> findOverlapping(String transcriptId, int start, int end)
+    {
+        List<Hotspot> results = new ArrayList<>();
+        int count = cache.findOverlapping(transcriptId, start, end, results);
+
+        assertEquals(results.size(), count);
+
+        return results;
+    }
+
+    private List<Hotspot> bruteForce(String transcriptId, int start, int end)
+    {
+        List<Hotspot> results = new ArrayList<>();
+
+        for (Hotspot hotspot: hotspots)
+        {
+            if (hotspot.getTranscriptId().equalsIgnoreCase(transcriptId) &&
+                Numerical.overlaps(hotspot.getResidue(), Integer.toString(start), Integer.toString(end)))
+            {
+                results.add(hotspot);
+            }
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genmone_nexus.annotation.util;
+
+import org.cbioportal.genome_nexus.annotation.util.Compression;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for Compression codecs.
+ */
+public class CompressionTest
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String ANNOTATION_JSON =
+        "{\"id\":\"7:g.140453136A>T\",\"assembly_name\":\"GRCh37\",\"seq_region_name\":\"7\"," +
+        "\"transcript_consequences\":[{\"transcript_id\":\"ENST00000288602\",\"gene_symbol\":\"BRAF\"}," +
+        "{\"transcript_id\":\"ENST00000479537\",\"gene_symbol\":\"BRAF\"}]}";
+
+    @Test
+    public void roundTrip() throws IOException
+    {
+        byte[] data = ANNOTATION_JSON.getBytes(UTF8);
+
+        for (Compression codec: Compression.values())
+        {
+            assertEquals(codec.name(), ANNOTATION_JSON, new String(codec.decompress(codec.compress(data)), UTF8));
+            assertArrayEquals(codec.name(), new byte[0], codec.decompress(codec.compress(new byte[0])));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidDeflateData() throws IOException
+    {
+        Compression.DEFLATE.decompress(new byte[] {1, 2, 3});
+    }
+
+    @Test
+    public void forName()
+    {
+        assertNull(Compression.forName(null));
+        assertNull(Compression.forName("none"));
+        assertEquals(Compression.DEFLATE, Compression.forName("deflate"));
+        assertEquals(Compression.LZ4, Compression.forName(" LZ4 "));
+    }
+}
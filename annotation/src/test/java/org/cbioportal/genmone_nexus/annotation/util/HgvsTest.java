@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genmone_nexus.annotation.util;
+
+import org.cbioportal.genome_nexus.annotation.util.Hgvs;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for Hgvs utils.
+ */
+public class HgvsTest
+{
+    @Test
+    public void normalizeChromosome()
+    {
+        assertEquals("17:g.41242962->GA", Hgvs.normalize("17:g.41242962->GA"));
+        assertEquals("17:g.41242962->GA", Hgvs.normalize("chr17:g.41242962->GA"));
+        assertEquals("17:g.41242962->GA", Hgvs.normalize("CHR17:g.41242962->GA"));
+        assertEquals("X:g.66765158C>T", Hgvs.normalize("chrx:g.66765158C>T"));
+        assertEquals("X:g.66765158C>T", Hgvs.normalize("23:g.66765158C>T"));
+        assertEquals("Y:g.2655180G>A", Hgvs.normalize("24:g.2655180G>A"));
+        assertEquals("MT:g.8993T>G", Hgvs.normalize("chrM:g.8993T>G"));
+        assertEquals("7:g.140453136A>T", Hgvs.normalize("07:g.140453136A>T"));
+    }
+
+    @Test
+    public void normalizeWhitespace()
+    {
+        assertEquals("7:g.140453136A>T", Hgvs.normalize(" 7:g.140453136A>T\n"));
+        assertEquals("7:g.140453136A>T", Hgvs.normalize("7: g.140453136 A>T"));
+    }
+
+    @Test
+    public void normalizeAlleles()
+    {
+        assertEquals("7:g.140453136A>T", Hgvs.normalize("7:G.140453136a>t"));
+        assertEquals("12:g.25398284_25398285delinsAT", Hgvs.normalize("12:g.25398284_25398285DELINSat"));
+        assertEquals("13:g.32914438del", Hgvs.normalize("13:g.32914438DEL"));
+        assertEquals("17:g.7578406_7578407insCCT", Hgvs.normalize("17:g.7578406_7578407InsCct"));
+        assertEquals("2:g.29443695dupG", Hgvs.normalize("2:g.29443695DUPg"));
+    }
+
+    @Test
+    public void keepNonGenomic()
+    {
+        // only whitespace is removed from non-genomic keys
+        assertEquals("ENST00000288602:c.1799T>A", Hgvs.normalize(" ENST00000288602:c.1799T>A "));
+        assertNull(Hgvs.normalize(null));
+    }
+
+    @Test
+    public void fromGenomicLocation()
+    {
+        assertEquals("7:g.140453136A>T", Hgvs.fromGenomicLocation("7", "140453136", "140453136", "A", "T"));
+        assertEquals("17:g.7578406_7578407insCCT", Hgvs.fromGenomicLocation("chr17", "7578406", "7578407", "-", "CCT"));
+        assertEquals("13:g.32914438del", Hgvs.fromGenomicLocation("13", "32914438", "32914438", "T", "-"));
+        assertEquals("13:g.32914438_32914441del", Hgvs.fromGenomicLocation("13", "32914438", "32914441", "TACA", "-"));
+        assertEquals("12:g.25398284_25398285delinsAT", Hgvs.fromGenomicLocation("12", "25398284", "25398285", "CC", "AT"));
+        assertNull(Hgvs.fromGenomicLocation("7", "140453136", "140453136", "A", "A"));
+        assertNull(Hgvs.fromGenomicLocation("", "140453136", "140453136", "A", "T"));
+    }
+
+    @Test
+    public void isHgvs()
+    {
+        assertTrue(Hgvs.isHgvs("7:g.140453136A>T"));
+        assertTrue(Hgvs.isHgvs("ENST00000288602:c.1799T>A"));
+        assertFalse(Hgvs.isHgvs("7\t140453136\t.\tA\tT"));
+        assertFalse(Hgvs.isHgvs("rs113488022"));
+        assertFalse(Hgvs.isHgvs(null));
+    }
+
+    @Test
+    public void pack()
+    {
+        byte[] packed = Hgvs.pack("7:g.140453136A>T");
+
+        assertEquals(Hgvs.PACKED_KEY_LENGTH, packed.length);
+        assertEquals(7, packed[0]);
+        assertEquals(140453136, ByteBuffer.wrap(packed, 1, 4).getInt());
+
+        // different spellings of the same variant
+        assertArrayEquals(packed, Hgvs.pack("chr7:g.140453136a>t"));
+
+        // same position, different alleles
+        assertFalse(ByteBuffer.wrap(packed).equals(ByteBuffer.wrap(Hgvs.pack("7:g.140453136A>C"))));
+
+        assertEquals(23, Hgvs.pack("X:g.66765158C>T")[0]);
+        assertEquals(25, Hgvs.pack("chrM:g.8993T>G")[0]);
+    }
+
+    @Test
+    public void packNonGenomic()
+    {
+        assertNull(Hgvs.pack("ENST00000288602:c.1799T>A"));
+        assertNull(Hgvs.pack("25:g.8993T>G"));
+        assertNull(Hgvs.pack(null));
+    }
+}
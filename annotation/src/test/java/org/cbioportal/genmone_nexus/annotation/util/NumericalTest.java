@@ -93,4 +93,26 @@ public class NumericalTest
 
         assertTrue(Numerical.overlaps("665-669", "666", "668"));
     }
+
+    @Test
+    public void rangeExtractor()
+    {
+        assertNull(Numerical.extractRange(null));
+        assertNull(Numerical.extractRange("I have no integers!"));
+        assertArrayEquals(new int[] {600, 600}, Numerical.extractRange("V600"));
+        assertArrayEquals(new int[] {666, 668}, Numerical.extractRange("666-668"));
+        assertArrayEquals(new int[] {12, 13}, Numerical.extractRange("G13_G12"));
+    }
+
+    @Test
+    public void positiveIntegerParser()
+    {
+        assertEquals(600, Numerical.parsePositiveInteger("600"));
+        assertEquals(0, Numerical.parsePositiveInteger("0"));
+        assertEquals(-1, Numerical.parsePositiveInteger(null));
+        assertEquals(-1, Numerical.parsePositiveInteger(""));
+        assertEquals(-1, Numerical.parsePositiveInteger("V600"));
+        assertEquals(-1, Numerical.parsePositiveInteger("-1"));
+        assertEquals(-1, Numerical.parsePositiveInteger("1234567890"));
+    }
 }
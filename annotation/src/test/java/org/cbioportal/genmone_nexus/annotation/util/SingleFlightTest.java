@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2016 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal Genome Nexus.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package org.cbioportal.genmone_nexus.annotation.util;
+
+import org.cbioportal.genome_nexus.annotation.util.SingleFlight;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for SingleFlight.
+ */
+public class SingleFlightTest
+{
+    @Test
+    public void coalesceCalls() throws InterruptedException
+    {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+        // first caller is responsible for the call
+        assertNull(singleFlight.join("7:g.140453136A>T"));
+
+        // any other caller waits for the first one
+        final SingleFlight.Call<String> call = singleFlight.join("7:g.140453136A>T");
+        assertNotNull(call);
+        assertEquals(1, singleFlight.size());
+
+        final String[] result = new String[1];
+        Thread follower = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    result[0] = call.get();
+                }
+                catch (InterruptedException | ExecutionException e) {
+                    // ignore
+                }
+            }
+        });
+
+        follower.start();
+        singleFlight.complete("7:g.140453136A>T", "annotation");
+        follower.join();
+
+        assertEquals("annotation", result[0]);
+        assertEquals(0, singleFlight.size());
+
+        // a completed key can be claimed again
+        assertNull(singleFlight.join("7:g.140453136A>T"));
+    }
+
+    @Test
+    public void leaderFails() throws InterruptedException
+    {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+        assertNull(singleFlight.join("7:g.140453136A>T"));
+        final SingleFlight.Call<String> call = singleFlight.join("7:g.140453136A>T");
+
+        final Throwable[] result = new Throwable[1];
+        Thread follower = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    call.get();
+                }
+                catch (ExecutionException e) {
+                    result[0] = e.getCause();
+                }
+                catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        });
+
+        IllegalStateException failure = new IllegalStateException("database not available");
+
+        follower.start();
+        singleFlight.completeExceptionally("7:g.140453136A>T", failure);
+        follower.join();
+
+        // the follower gets the failure of the leader, not a missing value
+        assertSame(failure, result[0]);
+        assertEquals(0, singleFlight.size());
+
+        // a failed key can be claimed again
+        assertNull(singleFlight.join("7:g.140453136A>T"));
+    }
+
+    @Test
+    public void independentKeys()
+    {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+        assertNull(singleFlight.join("7:g.140453136A>T"));
+        assertNull(singleFlight.join("12:g.25398285C>A"));
+        assertEquals(2, singleFlight.size());
+    }
+}